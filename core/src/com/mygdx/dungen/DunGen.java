@@ -6,6 +6,8 @@ import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.graphics.FPSLogger;
 import com.badlogic.gdx.graphics.Pixmap;
 import com.mygdx.dungen.mapgeneration.MapGenerator;
+import com.mygdx.dungen.mapgeneration.Tracer;
+import com.mygdx.dungen.screen.MapGenDebugScreen;
 
 
 public class DunGen extends Game {
@@ -18,12 +20,18 @@ public class DunGen extends Game {
 	@Override
 	public void create () {
 		Gdx.app.setLogLevel(Application.LOG_DEBUG);
+		// Per cell and per corridor attempt traces are debug, keep them out of the console by default
+		Tracer.setLevel(Tracer.LOG_INFO);
+		Tracer.setAsync(true);
 
 		Gdx.graphics.setCursor(Gdx.graphics.newCursor(new Pixmap(Gdx.files.internal("ui/cursor.png")), 0, 0));
         fpsLogger = new FPSLogger();
 
 		MapGenerator mapGenerator = new MapGenerator();
-		new Thread(mapGenerator).start();
+		new Thread(() -> {
+			GameMap map = mapGenerator.generate();
+			Gdx.app.postRunnable(() -> setScreen(new MapGenDebugScreen(map)));
+		}, "MapGenerator").start();
 	}
 
 	@Override
@@ -16,11 +16,24 @@ public class GameCell extends Rectangle {
         this.orientation = CellOrientation.ORIGINAL;
     }
 
+    /**
+     * @return A cell with the same bounds and orientation
+     */
+    public GameCell copy() {
+        GameCell copy = new GameCell(x, y, width, height);
+        copy.copyOrientation(this);
+        return copy;
+    }
+
     @Override
     public String toString() {
         return "Cell: " + super.toString();
     }
 
+    protected void copyOrientation(GameCell cell) {
+        orientation = cell.orientation;
+    }
+
     public CellOrientation getOrientation() {
         return orientation;
     }
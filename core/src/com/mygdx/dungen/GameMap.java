@@ -1,11 +1,10 @@
 package com.mygdx.dungen;
 
 
-import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.math.Rectangle;
 import com.badlogic.gdx.utils.Array;
-import com.mygdx.dungen.mapgeneration.NoDuplicateEdge;
-import org.jgrapht.graph.Multigraph;
+import com.mygdx.dungen.mapgeneration.RoomGraph;
+import com.mygdx.dungen.mapgeneration.Tracer;
 
 public class GameMap {
 
@@ -13,11 +12,14 @@ public class GameMap {
     public Array<GameCell> onlyCells;
     public Array<GameRoom> onlyRooms;
     public Rectangle boundingBox;
-    public Multigraph<GameRoom, NoDuplicateEdge> minimalSpanningTree;
+    public RoomGraph minimalSpanningTree;
     public Array<Rectangle> corridors;
+    // MapGenerator.generateMap(seed) gives this map again
+    public long seed;
 
-    public GameMap(Array<GameCell> cells, Rectangle boundingBox, Multigraph<GameRoom, NoDuplicateEdge> minimalSpanningTree, Array<Rectangle> corridors) {
+    public GameMap(Array<GameCell> cells, Rectangle boundingBox, RoomGraph minimalSpanningTree, Array<Rectangle> corridors, long seed) {
         this.cells = cells;
+        this.seed = seed;
         this.boundingBox = boundingBox;
         this.minimalSpanningTree = minimalSpanningTree;
         this.corridors = corridors;
@@ -29,7 +31,7 @@ public class GameMap {
         onlyCells = new Array<>(cellCount);
         onlyRooms = new Array<>(cellCount);
 
-        Gdx.app.log("GameMap", "Extracting rooms and cells from " + cellCount + " cells");
+        Tracer.info("GameMap", "Extracting rooms and cells from {} cells", cellCount);
 
         for (int i = 0; i < cellCount; i++) {
             GameCell cell = cells.get(i);
@@ -17,6 +17,22 @@ public class GameRoom extends GameCell {
         entrances = new Array<>();
     }
 
+    /**
+     * @return A room with the same bounds and orientation, and copies of the entrances of this one
+     */
+    @Override
+    public GameRoom copy() {
+        GameRoom copy = new GameRoom(x, y, width, height);
+        copy.copyOrientation(this);
+
+        for (int i = 0; i < entrances.size; i++) {
+            Entrance entrance = entrances.get(i);
+            copy.entrances.add(new Entrance(entrance.getStart().x, entrance.getStart().y, entrance.getEnd().x, entrance.getEnd().y));
+        }
+
+        return copy;
+    }
+
     public void addEntrance(Entrance entrance) {
         if (entrance != null) entrances.add(entrance);
     }
@@ -14,10 +14,7 @@ import com.mygdx.dungen.GameCell;
 import com.mygdx.dungen.GameMap;
 import com.mygdx.dungen.GameRoom;
 import com.mygdx.dungen.mapgeneration.MapGenerator;
-import com.mygdx.dungen.mapgeneration.NoDuplicateEdge;
-import org.jgrapht.graph.Multigraph;
-
-import java.util.Set;
+import com.mygdx.dungen.mapgeneration.RoomGraph;
 
 /**
  * @author leonard
@@ -141,17 +138,17 @@ public class MapGenDebugRenderer {
     private void drawMinimalSpanningTree(ShapeRenderer shapeRenderer) {
         shapeRenderer.setColor(MIN_SPANNING_TREE_COLOR);
 
-        Multigraph<GameRoom, NoDuplicateEdge> minSpanningTree = map.minimalSpanningTree;
+        RoomGraph minSpanningTree = map.minimalSpanningTree;
 
-        Set<NoDuplicateEdge> edges = minSpanningTree.edgeSet();
+        int edgeCount = minSpanningTree.getEdgeCount();
 
-        for (NoDuplicateEdge edge : edges) {
+        for (int edge = 0; edge < edgeCount; edge++) {
 
             Vector2 sourceRoomCenter = new Vector2();
             Vector2 targetRoomCenter = new Vector2();
 
-            minSpanningTree.getEdgeSource(edge).getCenter(sourceRoomCenter);
-            minSpanningTree.getEdgeTarget(edge).getCenter(targetRoomCenter);
+            minSpanningTree.getRoom(minSpanningTree.getEdgeSource(edge)).getCenter(sourceRoomCenter);
+            minSpanningTree.getRoom(minSpanningTree.getEdgeTarget(edge)).getCenter(targetRoomCenter);
 
             shapeRenderer.line(sourceRoomCenter.x, sourceRoomCenter.y, targetRoomCenter.x, targetRoomCenter.y);
         }
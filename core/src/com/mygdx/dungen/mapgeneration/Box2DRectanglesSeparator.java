@@ -0,0 +1,181 @@
+package com.mygdx.dungen.mapgeneration;
+
+import com.badlogic.gdx.math.Rectangle;
+import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.physics.box2d.Body;
+import com.badlogic.gdx.physics.box2d.BodyDef;
+import com.badlogic.gdx.physics.box2d.Box2D;
+import com.badlogic.gdx.physics.box2d.FixtureDef;
+import com.badlogic.gdx.physics.box2d.PolygonShape;
+import com.badlogic.gdx.physics.box2d.World;
+import com.badlogic.gdx.utils.Array;
+import com.mygdx.dungen.GameRoom;
+
+import java.util.SplittableRandom;
+
+/**
+ * Separation delegated to Box2D.
+ * Rectangles are loaded as boxes in a world without gravity, the native broad phase and contact solver push them
+ * apart until every body sleeps or nothing moves anymore. Positions are then snapped back to the integer grid and the few overlaps
+ * introduced by the rounding are removed by a short {@link PackedRectanglesSeparator} pass.
+ */
+public class Box2DRectanglesSeparator {
+
+    private static final float TIME_STEP            = 1 / 60f;
+    private static final int   VELOCITY_ITERATIONS  = 8;
+    private static final int   POSITION_ITERATIONS  = 3;
+    private static final float LINEAR_DAMPING       = 10f;
+    // Below this displacement over SETTLE_WINDOW steps the world is considered settled even if some bodies are
+    // still awake, jammed bodies keep jittering around the contact slop (about 0.01) without going anywhere
+    private static final int   SETTLE_WINDOW        = 30;
+    private static final float SETTLED_DISPLACEMENT = 0.05f;
+
+    private final PackedRectanglesSeparator roundingSeparator;
+
+    private SeparationBudget budget;
+    private SeparationListener listener;
+
+    private Body[] bodies;
+    private float[] previousX;
+    private float[] previousY;
+
+    public Box2DRectanglesSeparator() {
+        Box2D.init();
+
+        budget = SeparationBudget.UNLIMITED;
+        roundingSeparator = new PackedRectanglesSeparator();
+        bodies = new Body[16];
+        previousX = new float[16];
+        previousY = new float[16];
+    }
+
+    public void separateOverlappingRectangles(Array<? extends Rectangle> rectangles, boolean roomsAreFixed) throws MapGenException {
+        Tracer.info("Box2DSeparator", "Separating {} rectangles", rectangles.size);
+
+        World world = new World(new Vector2(0, 0), true);
+
+        try {
+            createBodies(world, rectangles, roomsAreFixed);
+            step(world, rectangles.size);
+            snapToGrid(rectangles);
+        } finally {
+            // The world and its bodies live in native memory
+            world.dispose();
+            for (int i = 0; i < rectangles.size; i++) bodies[i] = null;
+        }
+
+        roundingSeparator.separateOverlappingRectangles(rectangles, roomsAreFixed);
+    }
+
+    public void setBudget(SeparationBudget budget) {
+        this.budget = budget;
+        roundingSeparator.setBudget(budget);
+    }
+
+    public void setListener(SeparationListener listener) {
+        this.listener = listener;
+        roundingSeparator.setListener(listener);
+    }
+
+    /**
+     * @param random Source of the random moves of the rounding pass, Box2D itself is deterministic
+     */
+    public void setRandom(SplittableRandom random) {
+        roundingSeparator.setRandom(random);
+    }
+
+    private void createBodies(World world, Array<? extends Rectangle> rectangles, boolean roomsAreFixed) {
+        if (bodies.length < rectangles.size) {
+            bodies = new Body[rectangles.size];
+            previousX = new float[rectangles.size];
+            previousY = new float[rectangles.size];
+        }
+
+        BodyDef bodyDef = new BodyDef();
+        bodyDef.fixedRotation = true;
+        bodyDef.linearDamping = LINEAR_DAMPING;
+
+        PolygonShape shape = new PolygonShape();
+        FixtureDef fixtureDef = new FixtureDef();
+        fixtureDef.shape = shape;
+        fixtureDef.density = 1f;
+        fixtureDef.friction = 0f;
+        fixtureDef.restitution = 0f;
+
+        for (int i = 0; i < rectangles.size; i++) {
+            Rectangle rectangle = rectangles.get(i);
+            boolean isStatic = roomsAreFixed && rectangle instanceof GameRoom;
+
+            bodyDef.type = isStatic ? BodyDef.BodyType.StaticBody : BodyDef.BodyType.DynamicBody;
+            bodyDef.position.set(rectangle.x + rectangle.width / 2, rectangle.y + rectangle.height / 2);
+            shape.setAsBox(rectangle.width / 2, rectangle.height / 2);
+
+            bodies[i] = world.createBody(bodyDef);
+            bodies[i].createFixture(fixtureDef);
+            previousX[i] = bodyDef.position.x;
+            previousY[i] = bodyDef.position.y;
+        }
+
+        shape.dispose();
+    }
+
+    /**
+     * Step the world until every dynamic body sleeps or the world is settled.
+     * Bodies wedged between static rooms can stay awake forever without moving, the rounding pass handles them.
+     */
+    private void step(World world, int bodyCount) throws MapGenException {
+        boolean settled = false;
+        long startTime = System.nanoTime();
+        int iteration = 0;
+
+        while (!settled) {
+            world.step(TIME_STEP, VELOCITY_ITERATIONS, POSITION_ITERATIONS);
+            iteration++;
+
+            // Positions only drift a little per step, so they are compared over a whole window
+            if (iteration % SETTLE_WINDOW != 0) continue;
+
+            int awakeCount = 0;
+            float maxDisplacement2 = 0f;
+
+            for (int i = 0; i < bodyCount; i++) {
+                Body body = bodies[i];
+
+                if (body.getType() == BodyDef.BodyType.StaticBody || !body.isAwake()) continue;
+
+                Vector2 position = body.getPosition();
+                float displacementX = position.x - previousX[i];
+                float displacementY = position.y - previousY[i];
+
+                awakeCount++;
+                maxDisplacement2 = Math.max(maxDisplacement2, displacementX * displacementX + displacementY * displacementY);
+                previousX[i] = position.x;
+                previousY[i] = position.y;
+            }
+
+            float maxDisplacement = (float) Math.sqrt(maxDisplacement2);
+            settled = awakeCount == 0 || maxDisplacement < SETTLED_DISPLACEMENT;
+
+            reportIteration("Box2D separation", iteration, awakeCount, maxDisplacement);
+
+            if (!settled) budget.ensureWithinBudget("Box2D separation", iteration, startTime, awakeCount);
+        }
+
+        Tracer.info("Box2DSeparator", "World settled after {} steps", iteration);
+    }
+
+    private void snapToGrid(Array<? extends Rectangle> rectangles) {
+        for (int i = 0; i < rectangles.size; i++) {
+            Rectangle rectangle = rectangles.get(i);
+            Vector2 center = bodies[i].getPosition();
+
+            rectangle.setPosition(Math.round(center.x - rectangle.width / 2), Math.round(center.y - rectangle.height / 2));
+        }
+    }
+
+    private void reportIteration(String stage, int iteration, int awakeCount, float maxDisplacement) {
+        if (Tracer.isDebugEnabled()) Tracer.debug("Box2DSeparator", "{} iteration {}: {} bodies awake, max displacement {}", stage, iteration, awakeCount, maxDisplacement);
+
+        if (listener != null) listener.onIteration(stage, iteration, awakeCount, maxDisplacement);
+    }
+}
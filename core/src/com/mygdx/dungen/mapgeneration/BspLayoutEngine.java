@@ -0,0 +1,210 @@
+package com.mygdx.dungen.mapgeneration;
+
+import com.badlogic.gdx.utils.Array;
+import com.mygdx.dungen.GameCell;
+import com.mygdx.dungen.GameRoom;
+
+import java.util.SplittableRandom;
+
+/**
+ * Binary space partition layout.
+ * Cells are recursively split in two halves around the median of their current centers, alternating x and y,
+ * then every half is packed next to its sibling. Nothing can overlap by construction and the cost is O(n log n)
+ * whatever the random sizes are. Siblings that both hold rooms are kept apart by an empty strip wide enough for a corridor.
+ */
+public class BspLayoutEngine implements LayoutEngine {
+
+    private final float roomSpreadRadiusOffset;
+    private final int corridorGap;
+
+    private Array<GameCell> cells;
+    private int[] order;
+    private float[] centersX;
+    private float[] centersY;
+
+    // Partition tree, children of a leaf are -1
+    private int[] nodeWidth;
+    private int[] nodeHeight;
+    private int[] nodeLeft;
+    private int[] nodeRight;
+    private int[] nodeCell;
+    private boolean[] nodeSplitOnX;
+    private boolean[] nodeHasRoom;
+    // Empty strip between the two children
+    private int[] nodeGap;
+    private int nodeCount;
+
+    /**
+     * @param roomSpreadRadiusOffset Offset added to the radius of the rooms. Like when spreading them, rooms get a
+     *                               square as large as that circle so corridors have room to reach them
+     * @param corridorGap Width of the strip left between two siblings holding rooms, so a corridor can run between them
+     */
+    public BspLayoutEngine(float roomSpreadRadiusOffset, int corridorGap) {
+        this.roomSpreadRadiusOffset = roomSpreadRadiusOffset;
+        this.corridorGap = corridorGap;
+    }
+
+    @Override
+    public void setRandom(SplittableRandom random) {
+        // Nothing random, the layout only depends on the cell sizes
+    }
+
+    @Override
+    public void layout(Array<GameCell> cells) throws MapGenException {
+        int cellCount = cells.size;
+
+        Tracer.info("BspLayoutEngine", "Partitioning {} cells", cellCount);
+
+        if (cellCount == 0) return;
+
+        this.cells = cells;
+        order = new int[cellCount];
+        centersX = new float[cellCount];
+        centersY = new float[cellCount];
+
+        for (int i = 0; i < cellCount; i++) {
+            GameCell cell = cells.get(i);
+
+            order[i] = i;
+            centersX[i] = cell.x + cell.width / 2;
+            centersY[i] = cell.y + cell.height / 2;
+        }
+
+        int maxNodeCount = 2 * cellCount - 1;
+        nodeWidth = new int[maxNodeCount];
+        nodeHeight = new int[maxNodeCount];
+        nodeLeft = new int[maxNodeCount];
+        nodeRight = new int[maxNodeCount];
+        nodeCell = new int[maxNodeCount];
+        nodeSplitOnX = new boolean[maxNodeCount];
+        nodeHasRoom = new boolean[maxNodeCount];
+        nodeGap = new int[maxNodeCount];
+        nodeCount = 0;
+
+        int root = build(0, cellCount, true);
+        place(root, -nodeWidth[root] / 2, -nodeHeight[root] / 2);
+
+        Tracer.info("BspLayoutEngine", "Layout size: {} x {}", nodeWidth[root], nodeHeight[root]);
+
+        this.cells = null;
+    }
+
+    /**
+     * Build the partition of order[from, to) and compute the size of every node
+     * @return The index of the node
+     */
+    private int build(int from, int to, boolean splitOnX) {
+        int node = nodeCount++;
+
+        if (to - from == 1) {
+            GameCell cell = cells.get(order[from]);
+
+            nodeLeft[node] = -1;
+            nodeRight[node] = -1;
+            nodeCell[node] = order[from];
+            nodeHasRoom[node] = cell instanceof GameRoom;
+            nodeGap[node] = 0;
+            nodeWidth[node] = (int) Math.ceil(cell.width) + 2 * getPaddingX(cell);
+            nodeHeight[node] = (int) Math.ceil(cell.height) + 2 * getPaddingY(cell);
+            return node;
+        }
+
+        int middle = (from + to) >>> 1;
+        select(splitOnX ? centersX : centersY, from, to, middle);
+
+        int left = build(from, middle, !splitOnX);
+        int right = build(middle, to, !splitOnX);
+
+        nodeLeft[node] = left;
+        nodeRight[node] = right;
+        nodeCell[node] = -1;
+        nodeSplitOnX[node] = splitOnX;
+        nodeHasRoom[node] = nodeHasRoom[left] || nodeHasRoom[right];
+        nodeGap[node] = nodeHasRoom[left] && nodeHasRoom[right] ? corridorGap : 0;
+
+        if (splitOnX) {
+            nodeWidth[node] = nodeWidth[left] + nodeGap[node] + nodeWidth[right];
+            nodeHeight[node] = Math.max(nodeHeight[left], nodeHeight[right]);
+        } else {
+            nodeWidth[node] = Math.max(nodeWidth[left], nodeWidth[right]);
+            nodeHeight[node] = nodeHeight[left] + nodeGap[node] + nodeHeight[right];
+        }
+
+        return node;
+    }
+
+    /**
+     * Place a node with its bottom left corner at (x, y), children are centered on the other axis
+     */
+    private void place(int node, int x, int y) {
+        if (nodeCell[node] >= 0) {
+            GameCell cell = cells.get(nodeCell[node]);
+
+            cell.setPosition(x + getPaddingX(cell), y + getPaddingY(cell));
+            return;
+        }
+
+        int left = nodeLeft[node];
+        int right = nodeRight[node];
+
+        if (nodeSplitOnX[node]) {
+            place(left, x, y + (nodeHeight[node] - nodeHeight[left]) / 2);
+            place(right, x + nodeWidth[left] + nodeGap[node], y + (nodeHeight[node] - nodeHeight[right]) / 2);
+        } else {
+            place(left, x + (nodeWidth[node] - nodeWidth[left]) / 2, y);
+            place(right, x + (nodeWidth[node] - nodeWidth[right]) / 2, y + nodeHeight[left] + nodeGap[node]);
+        }
+    }
+
+    private int getPaddingX(GameCell cell) {
+        if (!(cell instanceof GameRoom)) return 0;
+
+        return (int) Math.ceil(getSpreadRadius(cell) - cell.width / 2);
+    }
+
+    private int getPaddingY(GameCell cell) {
+        if (!(cell instanceof GameRoom)) return 0;
+
+        return (int) Math.ceil(getSpreadRadius(cell) - cell.height / 2);
+    }
+
+    private float getSpreadRadius(GameCell room) {
+        return (float) Math.sqrt(room.width * room.width / 4 + room.height * room.height / 4) + roomSpreadRadiusOffset;
+    }
+
+    /**
+     * Quickselect: reorder order[from, to) so that the k-th smallest key is at k,
+     * smaller or equal keys before it and greater or equal keys after it
+     */
+    private void select(float[] keys, int from, int to, int k) {
+        int low = from;
+        int high = to - 1;
+
+        while (high > low) {
+            float pivot = keys[order[(low + high) >>> 1]];
+            int i = low;
+            int j = high;
+
+            while (i <= j) {
+                while (keys[order[i]] < pivot) i++;
+                while (keys[order[j]] > pivot) j--;
+
+                if (i <= j) {
+                    int tmp = order[i];
+                    order[i] = order[j];
+                    order[j] = tmp;
+                    i++;
+                    j--;
+                }
+            }
+
+            if (k <= j) {
+                high = j;
+            } else if (k >= i) {
+                low = i;
+            } else {
+                break;
+            }
+        }
+    }
+}
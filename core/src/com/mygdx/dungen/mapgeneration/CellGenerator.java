@@ -1,7 +1,6 @@
 package com.mygdx.dungen.mapgeneration;
 
 
-import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.math.MathUtils;
 import com.badlogic.gdx.utils.Array;
 import com.mygdx.dungen.CellOrientation;
@@ -9,11 +8,40 @@ import com.mygdx.dungen.GameCell;
 import com.mygdx.dungen.GameRoom;
 import com.mygdx.dungen.GameCellException;
 
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
 public class CellGenerator {
 
+    /**
+     * @deprecated Rooms are no longer retried until their ratio is valid, a valid angle is drawn directly
+     */
+    @Deprecated
     public static final int MAX_TRY = 400;
 
-    public CellGenerator() {}
+    private static final double TWO_PI = Math.PI * 2;
+
+    // Scratch arrays of ensureRoomRatio, grown with the radius
+    private double[] angleBreakpoints = new double[0];
+    private double[] validIntervalStarts = new double[0];
+    private double[] validIntervalCumulativeLengths = new double[0];
+    // Angle checked in each valid interval
+    private float[] validIntervalMiddles = new float[0];
+    // Interval of the last angle returned by sampleValidAngle
+    private int sampledInterval;
+
+    private SplittableRandom random;
+
+    public CellGenerator() {
+        random = new SplittableRandom();
+    }
+
+    /**
+     * @param random Source of every random draw of this generator, one split of the map seed
+     */
+    public void setRandom(SplittableRandom random) {
+        this.random = random;
+    }
 
     /**
      * Generate cells from an array of radiuses and rooms if radiuses are above threshold
@@ -32,57 +60,113 @@ public class CellGenerator {
 
         int cellCount = radiuses.size;
 
-        Gdx.app.log("CellGenerator", "---------- Now generating cells ----------");
-        Gdx.app.log("CellRatio", "minRatio: " + minRoomRatio + ", maxRatio: " + maxRoomRatio);
+        Tracer.info("CellGenerator", "---------- Now generating cells ----------");
+        Tracer.info("CellRatio", "minRatio: {}, maxRatio: {}", minRoomRatio, maxRoomRatio);
 
         Array<GameCell> cells = new Array<GameCell>(cellCount);
 
         for (int i = 0; i < cellCount; i++) {
             Radius radius = radiuses.get(i);
-            float radiusValue = radius.getValue();
 
-            float angle = (float) (Math.random() * Math.PI * 2);
+            cells.add(generateCell(radius.getValue(), radius.isAboveThreshold(), minCellWidth, minCellHeight, maxCellWidth, maxCellHeight, minRoomWidth, minRoomHeight, minRoomRatio, maxRoomRatio, orientation));
+        }
+
+        return cells;
+    }
 
-            int x = Math.round((float) (Math.cos(angle) * radiusValue));
-            int y = Math.round((float) (Math.sin(angle) * radiusValue));
+    /**
+     * Generate cells from a batch of radiuses and rooms if radiuses are above threshold.
+     * A room whose ratio can't be met gets another radius from roomRadiusSource, the cells already generated are kept
+     * @param radiuses The batch of radiuses
+     * @param minCellWidth Minimum width of cell
+     * @param minCellHeight Minimum height of cell
+     * @param maxCellWidth Maximum width of cell
+     * @param maxCellHeight Maximum height of cell
+     * @param minRoomWidth Minimum width of room
+     * @param minRoomHeight Minimum height of room
+     * @param minRoomRatio Minimum ratio of room
+     * @param maxRoomRatio Maximum ratio of room
+     * @param maxRoomTry Radiuses tried for a room before giving up, the first one included
+     * @param roomRadiusSource Source of the radiuses of the re-rolled rooms
+     * @return An array containing the cells and rooms generated
+     * @throws GameCellException If a room still fails after maxRoomTry radiuses
+     */
+    public Array<GameCell> generateCellsFromRadiuses(RadiusBatch radiuses, int minCellWidth, int minCellHeight, int maxCellWidth, int maxCellHeight, int minRoomWidth, int minRoomHeight, float minRoomRatio, float maxRoomRatio, CellOrientation orientation, int maxRoomTry, RoomRadiusSource roomRadiusSource) throws GameCellException, MapGenException {
 
-            boolean isRadiusAboveThreshold = radius.isAboveThreshold();
+        int cellCount = radiuses.size();
 
-            int minCellXSize = isRadiusAboveThreshold ? minRoomWidth : minCellWidth;
-            int minCellYSize = isRadiusAboveThreshold ? minRoomHeight : minCellHeight;
+        Tracer.info("CellGenerator", "---------- Now generating cells ----------");
+        Tracer.info("CellRatio", "minRatio: {}, maxRatio: {}", minRoomRatio, maxRoomRatio);
 
-            int width;
-            int height;
+        Array<GameCell> cells = new Array<GameCell>(cellCount);
 
-            if (isRadiusAboveThreshold) {
-                width = Math.max(Math.abs(x) * 2, minCellXSize);
-                height = Math.max(Math.abs(y) * 2, minCellYSize);
-            } else {
-                width = MathUtils.clamp(Math.abs(x) * 2, minCellXSize, maxCellWidth);
-                height = MathUtils.clamp(Math.abs(y) * 2, minCellYSize, maxCellHeight);
+        for (int i = 0; i < cellCount; i++) {
+            boolean isRoom = radiuses.isAboveThreshold(i);
+            float radius = radiuses.getValue(i);
+
+            for (int roomTry = 1; ; roomTry++) {
+                try {
+                    cells.add(generateCell(radius, isRoom, minCellWidth, minCellHeight, maxCellWidth, maxCellHeight, minRoomWidth, minRoomHeight, minRoomRatio, maxRoomRatio, orientation));
+                    break;
+                } catch (GameCellException exception) {
+                    if (!isRoom || roomTry >= maxRoomTry) throw exception;
+
+                    Tracer.info("CellGenerator", "Room {} failed ({}), re-rolling its radius", i, exception.getMessage());
+                    radius = roomRadiusSource.nextRoomRadius();
+                }
             }
+        }
+
+        return cells;
+    }
 
-            GameCell cell;
+    /**
+     * Generate a single cell, or room if the radius is above threshold, see generateCellsFromRadiuses for the parameters
+     * @throws GameCellException If the cell is a room and no angle gives a valid ratio for this radius
+     */
+    private GameCell generateCell(float radiusValue, boolean isRadiusAboveThreshold, int minCellWidth, int minCellHeight, int maxCellWidth, int maxCellHeight, int minRoomWidth, int minRoomHeight, float minRoomRatio, float maxRoomRatio, CellOrientation orientation) throws GameCellException {
 
-            if (isRadiusAboveThreshold) {
-                cell = new GameRoom(x, y, width, height);
-                ensureRoomRatio(cell, radiusValue, minRoomRatio, maxRoomRatio, minCellXSize, minCellYSize, orientation);
-                cells.add(cell);
-            } else {
-                cell = new GameCell(x, y, width, height);
-                cells.add(cell);
-            }
+        float angle = (float) (random.nextDouble() * Math.PI * 2);
+
+        int x = Math.round((float) (Math.cos(angle) * radiusValue));
+        int y = Math.round((float) (Math.sin(angle) * radiusValue));
+
+        int minCellXSize = isRadiusAboveThreshold ? minRoomWidth : minCellWidth;
+        int minCellYSize = isRadiusAboveThreshold ? minRoomHeight : minCellHeight;
+
+        int width;
+        int height;
+
+        if (isRadiusAboveThreshold) {
+            width = Math.max(Math.abs(x) * 2, minCellXSize);
+            height = Math.max(Math.abs(y) * 2, minCellYSize);
+        } else {
+            width = MathUtils.clamp(Math.abs(x) * 2, minCellXSize, maxCellWidth);
+            height = MathUtils.clamp(Math.abs(y) * 2, minCellYSize, maxCellHeight);
+        }
 
+        GameCell cell;
+
+        if (isRadiusAboveThreshold) {
+            cell = new GameRoom(x, y, width, height);
+            ensureRoomRatio(cell, radiusValue, minRoomRatio, maxRoomRatio, minCellXSize, minCellYSize, orientation);
+        } else {
+            cell = new GameCell(x, y, width, height);
+        }
+
+        if (Tracer.isDebugEnabled()) {
             String cellOrRoom = isRadiusAboveThreshold ? "ROOM" : "CELL";
-            Gdx.app.log("CellGenerator", "  --> new " + cellOrRoom + ": (" + cell.x + ", " + cell.y + ") width: " + cell.width + ", height: " + cell.height);
+            Tracer.debug("CellGenerator", "  --> new {}: ({}, {}) width: {}, height: {}", cellOrRoom, cell.x, cell.y, cell.width, cell.height);
         }
 
-        return cells;
+        return cell;
     }
 
     // TODO might want to add maxWidth and maxHeight (not necessary for now)
     /**
-     * Ensure that the ratio of a cell
+     * Ensure that the ratio of a cell.
+     * If the ratio is off, a new angle is drawn uniformly among the angles giving a valid ratio for this radius,
+     * which is the distribution a retry loop converges to, without the retries.
      * @param cell The cell
      * @param radiusValue Radius used to generate x and y
      * @param minRatio Minimum ratio
@@ -90,35 +174,123 @@ public class CellGenerator {
      * @param minCellWidth Minimum width of cell
      * @param minCellHeight Minimum height of cell
      * @param orientation the orientation of the cell
+     * @throws GameCellException If no angle gives a valid ratio for this radius
      */
     public void ensureRoomRatio(GameCell cell, float radiusValue, float minRatio, float maxRatio, int minCellWidth, int minCellHeight, CellOrientation orientation) throws GameCellException {
 
-        Gdx.app.log("CellGenerator", "  --> checking cell ratio");
+        Tracer.debug("CellGenerator", "  --> checking cell ratio");
 
         float ratio = getRatio(orientation, cell);
-        int iterationCount = 0;
-        int tryCount = 0;
-
-        while ((ratio < minRatio || ratio > maxRatio)) {
-            if (tryCount > MAX_TRY) throw new GameCellException("CellGenerator: Ratio max try exceeded -> RADIUS_MULTIPLIER must be too low");
+        int validIntervalCount = 0;
 
-            float angle = (float) (Math.random() * Math.PI * 2);
+        if (ratio < minRatio || ratio > maxRatio) {
+            validIntervalCount = findValidAngleIntervals(cell, radiusValue, minRatio, maxRatio, minCellWidth, minCellHeight, orientation);
 
-            cell.x = Math.round((float) (Math.cos(angle) * radiusValue));
-            cell.y = Math.round((float) (Math.sin(angle) * radiusValue));
-
-            cell.width = Math.max(Math.abs(cell.x) * 2, minCellWidth);
-            cell.height = Math.max(Math.abs(cell.y) * 2, minCellHeight);
+            if (validIntervalCount == 0) throw new GameCellException("CellGenerator: No angle gives a valid ratio -> RADIUS_MULTIPLIER must be too low");
 
+            setCellFromAngle(cell, sampleValidAngle(validIntervalCount), radiusValue, minCellWidth, minCellHeight);
             ratio = getRatio(orientation, cell);
 
-            iterationCount++;
-            tryCount++;
+            // The intervals are found in double, the angle used in float can land in the neighbouring piece
+            if (ratio < minRatio || ratio > maxRatio) {
+                setCellFromAngle(cell, validIntervalMiddles[sampledInterval], radiusValue, minCellWidth, minCellHeight);
+                ratio = getRatio(orientation, cell);
+            }
         }
 
         cell.setOrientation(orientation);
 
-        Gdx.app.log("CellGenerator", "      --> Final Cell: " + ": (" + cell.x + ", " + cell.y + ") width: " + cell.width + ", height: " + cell.height + ", RATIO: " + ratio + ", iterations: " + iterationCount);
+        if (Tracer.isDebugEnabled()) Tracer.debug("CellGenerator", "      --> Final Cell: ({}, {}) width: {}, height: {}, RATIO: {}, valid angle intervals: {}", cell.x, cell.y, cell.width, cell.height, ratio, validIntervalCount);
+    }
+
+    /**
+     * Split the circle at every angle where round(cos * radius) or round(sin * radius) changes,
+     * the cell is constant on each piece so checking one angle per piece is enough
+     * @param cell Cell used as scratch to evaluate each piece
+     * @return The number of valid intervals stored in validIntervalStarts / validIntervalCumulativeLengths
+     */
+    private int findValidAngleIntervals(GameCell cell, float radiusValue, float minRatio, float maxRatio, int minCellWidth, int minCellHeight, CellOrientation orientation) {
+        int maxCoordinate = (int) Math.ceil(radiusValue);
+        ensureAngleCapacity(8 * (maxCoordinate + 1) + 2);
+
+        int breakpointCount = 0;
+        angleBreakpoints[breakpointCount++] = 0;
+        angleBreakpoints[breakpointCount++] = TWO_PI;
+
+        // Rounding changes when the coordinate crosses k + 0.5
+        for (int k = -maxCoordinate - 1; k <= maxCoordinate; k++) {
+            double value = (k + 0.5) / radiusValue;
+
+            if (value < -1 || value > 1) continue;
+
+            double cosAngle = Math.acos(value);
+            double sinAngle = Math.asin(value);
+
+            angleBreakpoints[breakpointCount++] = cosAngle;
+            angleBreakpoints[breakpointCount++] = TWO_PI - cosAngle;
+            angleBreakpoints[breakpointCount++] = sinAngle < 0 ? sinAngle + TWO_PI : sinAngle;
+            angleBreakpoints[breakpointCount++] = Math.PI - sinAngle;
+        }
+
+        Arrays.sort(angleBreakpoints, 0, breakpointCount);
+
+        int validIntervalCount = 0;
+        double cumulativeLength = 0;
+
+        for (int i = 0; i < breakpointCount - 1; i++) {
+            double start = angleBreakpoints[i];
+            double length = angleBreakpoints[i + 1] - start;
+
+            if (length <= 0) continue;
+
+            float middle = (float) (start + length / 2);
+            setCellFromAngle(cell, middle, radiusValue, minCellWidth, minCellHeight);
+            float ratio = getRatio(orientation, cell);
+
+            if (ratio < minRatio || ratio > maxRatio) continue;
+
+            cumulativeLength += length;
+            validIntervalStarts[validIntervalCount] = start;
+            validIntervalMiddles[validIntervalCount] = middle;
+            validIntervalCumulativeLengths[validIntervalCount] = cumulativeLength;
+            validIntervalCount++;
+        }
+
+        return validIntervalCount;
+    }
+
+    /**
+     * Uniform angle over the valid intervals found by {@link #findValidAngleIntervals}, its interval is kept in sampledInterval
+     */
+    private float sampleValidAngle(int validIntervalCount) {
+        double totalLength = validIntervalCumulativeLengths[validIntervalCount - 1];
+        double position = random.nextDouble() * totalLength;
+
+        int interval = Arrays.binarySearch(validIntervalCumulativeLengths, 0, validIntervalCount, position);
+        if (interval < 0) interval = -interval - 1;
+        interval = Math.min(interval, validIntervalCount - 1);
+
+        double previousCumulativeLength = interval == 0 ? 0 : validIntervalCumulativeLengths[interval - 1];
+        sampledInterval = interval;
+
+        return (float) (validIntervalStarts[interval] + position - previousCumulativeLength);
+    }
+
+    private void setCellFromAngle(GameCell cell, float angle, float radiusValue, int minCellWidth, int minCellHeight) {
+        cell.x = Math.round((float) (Math.cos(angle) * radiusValue));
+        cell.y = Math.round((float) (Math.sin(angle) * radiusValue));
+
+        cell.width = Math.max(Math.abs(cell.x) * 2, minCellWidth);
+        cell.height = Math.max(Math.abs(cell.y) * 2, minCellHeight);
+    }
+
+    private void ensureAngleCapacity(int capacity) {
+        if (angleBreakpoints.length >= capacity) return;
+
+        angleBreakpoints = new double[capacity];
+        validIntervalStarts = new double[capacity];
+        validIntervalCumulativeLengths = new double[capacity];
+        validIntervalMiddles = new float[capacity];
     }
 
     private float getRatio(CellOrientation orientation, GameCell cell) {
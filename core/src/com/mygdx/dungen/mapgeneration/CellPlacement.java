@@ -0,0 +1,11 @@
+package com.mygdx.dungen.mapgeneration;
+
+/**
+ * How cells are placed around the spread rooms before being separated
+ */
+public enum CellPlacement {
+    // All the cells stacked on the rooms bounding box center +- 1
+    CENTER,
+    // Cells laid out on a spiral of slots around the rooms bounding box center
+    SPIRAL
+}
@@ -1,16 +1,18 @@
 package com.mygdx.dungen.mapgeneration;
 
-import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.math.Rectangle;
 import com.badlogic.gdx.math.Vector2;
 import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.IntArray;
+import com.badlogic.gdx.utils.LongArray;
+import com.badlogic.gdx.utils.ObjectSet;
 import com.mygdx.dungen.GameCell;
 import com.mygdx.dungen.GameMap;
 import com.mygdx.dungen.GameRoom;
-import org.apache.commons.math3.random.RandomDataGenerator;
-import org.jgrapht.graph.Multigraph;
 
-import java.util.Set;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.SplittableRandom;
 
 /**
  * @author leonard
@@ -18,68 +20,271 @@ import java.util.Set;
  */
 public class CorridorGenerator {
 
-    private static final int CORRIDOR_SIZE = 3;
-    private static final int MAX_TRY = 200;
+    public static final int CORRIDOR_SIZE = 3;
+    // Corridor shapes: straight ones, then L ones by quadrant of the target and direction
+    // (1: horizontal part from the source first, 2: vertical part from the source first)
+    private static final int LINE_ON_X = 0;
+    private static final int LINE_ON_Y = 1;
+    private static final int RIGHT_TOP_1 = 2;
+    private static final int RIGHT_TOP_2 = 3;
+    private static final int RIGHT_BOTTOM_1 = 4;
+    private static final int RIGHT_BOTTOM_2 = 5;
+    private static final int LEFT_TOP_1 = 6;
+    private static final int LEFT_TOP_2 = 7;
+    private static final int LEFT_BOTTOM_1 = 8;
+    private static final int LEFT_BOTTOM_2 = 9;
+    // Extra cost of a bend for the router, in tiles
+    private static final int TURN_PENALTY = 8;
+    // Free tiles around the rooms the router can use
+    private static final int ROUTING_MARGIN = 4 * CORRIDOR_SIZE;
+
+    private final CorridorMode mode;
+
+    // Rooms and committed corridor parts, indexed like in obstacleGrid
+    private final Array<Rectangle> obstacles;
+    private final IntArray nearbyObstacles;
+    private SpatialHashGrid obstacleGrid;
+
+    // Offset search of the straight and L shape corridors, see findFreeOffsets
+    private final int[] offsetRanges;
+    // Free (end, first start, last start) triples of each direction of an L shape, straight corridors use the first one
+    private final IntArray[] freeOffsets;
+    private final int[] freeOffsetCounts;
+    private final float[] freeShares;
+    private final LongArray forbiddenStarts;
+    private final Rectangle[] lowerParts;
+    private final Rectangle[] nextParts;
+    private final Rectangle[] upperParts;
+    private final Rectangle[] startParts;
+    private int pickedEnd;
+
+    private final GridCorridorRouter router;
+
+    // Rooms joined by the corridors drawn so far
+    private final DisjointSets roomSets;
+
+    private SplittableRandom random;
+
+    public CorridorGenerator(CorridorMode mode) {
+        this.mode = mode;
+        obstacles = new Array<>();
+        nearbyObstacles = new IntArray();
+        offsetRanges = new int[4];
+        freeOffsets = new IntArray[]{new IntArray(), new IntArray()};
+        freeOffsetCounts = new int[2];
+        freeShares = new float[2];
+        forbiddenStarts = new LongArray();
+        lowerParts = new Rectangle[]{new Rectangle(), new Rectangle()};
+        nextParts = new Rectangle[]{new Rectangle(), new Rectangle()};
+        upperParts = new Rectangle[]{new Rectangle(), new Rectangle()};
+        startParts = new Rectangle[]{new Rectangle(), new Rectangle()};
+        roomSets = new DisjointSets();
+        random = new SplittableRandom();
+        router = mode == CorridorMode.ASTAR ? new GridCorridorRouter(CORRIDOR_SIZE, TURN_PENALTY, ROUTING_MARGIN) : null;
+    }
 
-    public CorridorGenerator() {}
+    /**
+     * @param random Source of every random draw of this generator, one split of the map seed
+     */
+    public void setRandom(SplittableRandom random) {
+        this.random = random;
+    }
 
-    public Array<Rectangle> generateCorridors(Array<GameCell> cells, Multigraph<GameRoom, NoDuplicateEdge> corridorsGraph) throws MapGenException {
+    /**
+     * Draw a corridor for each edge of corridorsGraph. An edge that can't be drawn is skipped,
+     * then if its rooms end up disconnected the shortest triangulation edges joining them are drawn instead
+     * @param triangulation Edges the corridors graph was taken from, over the same room ids
+     * @param drawnEdges Cleared then filled with the room ids of the edges that got a corridor, two consecutive values per edge
+     * @throws MapGenException If no triangulation edge can reconnect the rooms
+     */
+    public Array<Rectangle> generateCorridors(Array<GameCell> cells, RoomGraph corridorsGraph, RoomGraph triangulation, IntArray drawnEdges) throws MapGenException {
 
-        Gdx.app.log("CorridorGenerator", "------------- Generating corridors -------------");
+        Tracer.info("CorridorGenerator", "------------- Generating corridors -------------");
         Array<Rectangle> corridors = new Array<>();
-        Set<NoDuplicateEdge> edges = corridorsGraph.edgeSet();
+        int edgeCount = corridorsGraph.getEdgeCount();
 
         Array<GameRoom> rooms = GameMap.extractRooms(cells);
+        createObstacleGrid(rooms, edgeCount);
+        if (router != null) router.reset(rooms);
 
-        for (NoDuplicateEdge edge : edges) {
-            Gdx.app.log("CorridorGenerator", "  Generating corridor for edge: " + edge);
+        drawnEdges.clear();
+        roomSets.reset(corridorsGraph.getRoomCount());
+        int skippedEdgeCount = 0;
 
-            GameRoom sourceRoom = corridorsGraph.getEdgeSource(edge);
-            GameRoom targetRoom = corridorsGraph.getEdgeTarget(edge);
+        for (int edge = 0; edge < edgeCount; edge++) {
+            ensureNotCancelled();
+            if (!tryGenerateCorridor(corridors, corridorsGraph, edge, drawnEdges)) skippedEdgeCount++;
+        }
 
-            corridors = generateCorridor(rooms, corridors, sourceRoom, targetRoom);
+        if (skippedEdgeCount > 0) {
+            Tracer.info("CorridorGenerator", "  --> {} {} skipped", skippedEdgeCount, skippedEdgeCount > 1 ? "edges" : "edge");
+            reconnectRooms(corridors, corridorsGraph, triangulation, drawnEdges);
         }
 
         return corridors;
     }
 
-    private Array<Rectangle> generateCorridor(Array<GameRoom> rooms, Array<Rectangle> corridors, GameRoom source, GameRoom target) throws MapGenException {
+    /**
+     * A routed corridor can take a while, a speculative candidate that lost the race stops before the next one
+     */
+    private static void ensureNotCancelled() throws MapGenException {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new MapGenException("Corridor generation cancelled");
+        }
+    }
 
-        Rectangle[] corridor = null;
+    /**
+     * @return false if the corridor couldn't be drawn, nothing is added then
+     */
+    private boolean tryGenerateCorridor(Array<Rectangle> corridors, RoomGraph graph, int edge, IntArray drawnEdges) {
+        int source = graph.getEdgeSource(edge);
+        int target = graph.getEdgeTarget(edge);
+        GameRoom sourceRoom = graph.getRoom(source);
+        GameRoom targetRoom = graph.getRoom(target);
+
+        if (Tracer.isDebugEnabled()) Tracer.debug("CorridorGenerator", "  Generating corridor for edge: {} -> {}", sourceRoom, targetRoom);
+
+        try {
+            generateCorridor(corridors, sourceRoom, targetRoom);
+        } catch (MapGenException exception) {
+            Tracer.debug("CorridorGenerator", "      --> Edge skipped ({})", exception.getMessage());
+            return false;
+        }
 
-        int tryCount = 0;
-        boolean validCorridor = false;
+        drawnEdges.add(source);
+        drawnEdges.add(target);
+        roomSets.union(source, target);
 
-        while (!validCorridor) {
+        return true;
+    }
 
-            if (tryCount > MAX_TRY) {
-                throw new MapGenException("Couldn't create a proper corridor that doesn't overlap other rooms and corridors");
-            }
+    /**
+     * Kruskal over the triangulation edges missing from corridorsGraph, shortest first,
+     * until the drawn corridors join every room again. Edges of corridorsGraph are not tried again:
+     * obstacles were only added since they failed
+     */
+    private void reconnectRooms(Array<Rectangle> corridors, RoomGraph corridorsGraph, RoomGraph triangulation, IntArray drawnEdges) throws MapGenException {
+
+        if (roomSets.getSetCount() <= 1) {
+            Tracer.info("CorridorGenerator", "      --> Rooms still connected, nothing to replace");
+            return;
+        }
 
-            corridor = createCorridor(source, target);
+        int graphEdgeCount = corridorsGraph.getEdgeCount();
+        long[] graphEdgeKeys = new long[graphEdgeCount];
 
-            validCorridor = ensureNoCollisionCorridor(rooms, corridors, corridor);
-            if (!validCorridor) {
-                source.removeLastEntrance();
-                target.removeLastEntrance();
-            }
+        for (int e = 0; e < graphEdgeCount; e++) {
+            graphEdgeKeys[e] = edgeKey(corridorsGraph.getEdgeSource(e), corridorsGraph.getEdgeTarget(e));
+        }
+
+        Arrays.sort(graphEdgeKeys);
+
+        // Lengths are >= 0, so their float bits sort like the floats, edge index kept in the low bits
+        int edgeCount = triangulation.getEdgeCount();
+        long[] candidates = new long[edgeCount];
 
-            tryCount++;
+        for (int e = 0; e < edgeCount; e++) {
+            candidates[e] = ((long) Float.floatToIntBits(triangulation.getEdgeLength(e)) << 32) | e;
         }
 
-        Gdx.app.log("CorridorGenerator", "      --> Corridor created in " + tryCount + " try");
+        Arrays.sort(candidates);
+        int replacementCount = 0;
+
+        for (int i = 0; i < edgeCount && roomSets.getSetCount() > 1; i++) {
+            int edge = (int) candidates[i];
+            int source = triangulation.getEdgeSource(edge);
+            int target = triangulation.getEdgeTarget(edge);
+
+            if (roomSets.find(source) == roomSets.find(target)) continue;
+            if (Arrays.binarySearch(graphEdgeKeys, edgeKey(source, target)) >= 0) continue;
+
+            ensureNotCancelled();
+            if (tryGenerateCorridor(corridors, triangulation, edge, drawnEdges)) replacementCount++;
+        }
+
+        Tracer.info("CorridorGenerator", "      --> {} triangulation {} drawn instead", replacementCount, replacementCount > 1 ? "edges" : "edge");
+
+        if (roomSets.getSetCount() > 1) {
+            throw new MapGenException("Couldn't reconnect " + roomSets.getSetCount() + " groups of rooms after skipping corridors");
+        }
+    }
+
+    private static long edgeKey(int room1, int room2) {
+        return ((long) Math.min(room1, room2) << 32) | Math.max(room1, room2);
+    }
+
+    /**
+     * Index the rooms in a grid, corridor parts are added to it as they are committed
+     * @param edgeCount Number of corridors to come, usually two parts at most each
+     */
+    private void createObstacleGrid(Array<GameRoom> rooms, int edgeCount) {
+        int roomCount = rooms.size;
+        float sizeSum = 0f;
+
+        for (int i = 0; i < roomCount; i++) {
+            GameRoom room = rooms.get(i);
+            sizeSum += Math.max(room.width, room.height);
+        }
+
+        // Buckets the size of an average room, corridors are thinner but span several of them
+        float bucketSize = roomCount > 0 ? Math.max(sizeSum / roomCount, CORRIDOR_SIZE) : CORRIDOR_SIZE;
+        obstacleGrid = new SpatialHashGrid(bucketSize, roomCount + 2 * edgeCount);
+        obstacles.clear();
+
+        for (int i = 0; i < roomCount; i++) {
+            addObstacle(rooms.get(i));
+        }
+    }
+
+    private void addObstacle(Rectangle obstacle) {
+        obstacleGrid.insert(obstacles.size, obstacle.x, obstacle.y, obstacle.width, obstacle.height);
+        obstacles.add(obstacle);
+    }
+
+    private Array<Rectangle> generateCorridor(Array<Rectangle> corridors, GameRoom source, GameRoom target) throws MapGenException {
+
+        Rectangle[] corridor = mode == CorridorMode.ASTAR ? routeCorridor(source, target) : createFreeCorridor(source, target);
 
         for (int i = 0; i < corridor.length; i++) {
             Rectangle corridorPart = corridor[i];
 
             if (corridorPart != null) {
                 corridors.add(corridorPart);
+                addObstacle(corridorPart);
+                if (router != null) router.block(corridorPart);
             }
         }
 
         return corridors;
     }
 
+    private Rectangle[] routeCorridor(GameRoom source, GameRoom target) throws MapGenException {
+
+        Rectangle[] corridor = router.route(source, target);
+
+        if (corridor == null) {
+            throw new MapGenException("Couldn't route a corridor that doesn't overlap other rooms and corridors");
+        }
+
+        if (Tracer.isDebugEnabled()) Tracer.debug("CorridorGenerator", "      --> Corridor routed in {} segments", corridor.length);
+
+        return corridor;
+    }
+
+    private Rectangle[] createFreeCorridor(GameRoom source, GameRoom target) throws MapGenException {
+
+        Rectangle[] corridor = createCorridor(source, target);
+
+        if (corridor == null) {
+            throw new MapGenException("Couldn't create a proper corridor that doesn't overlap other rooms and corridors");
+        }
+
+        return corridor;
+    }
+
+    /**
+     * @return The corridor parts, null if no straight or L shape corridor overlaps nothing
+     */
     private Rectangle[] createCorridor(GameRoom source, GameRoom target) {
 
         /*Gdx.app.log("CorridorGenerator", "Generating corridor for :");
@@ -105,6 +310,8 @@ public class CorridorGenerator {
         boolean xIntersect = xIntersectSource || xIntersectTarget;
         boolean yIntersect = yIntersectSource || yIntersectTarget;
 
+        Rectangle corridor = null;
+
         if (xIntersect) {
             int spaceAvailableX;
 
@@ -123,15 +330,11 @@ public class CorridorGenerator {
             }
 
             if (spaceAvailableX >= CORRIDOR_SIZE + 2) {
-                Rectangle corridor;
                 if (xIntersectSource) {
                     corridor = createLineCorridor(true, source, target);
                 } else {
                     corridor = createLineCorridor(true, target, source);
                 }
-                return new Rectangle[]{corridor};
-            } else {
-                return createLShapeCorridor(source, target);
             }
         } else if (yIntersect) {
             int spaceAvailableY;
@@ -151,91 +354,60 @@ public class CorridorGenerator {
             }
 
             if (spaceAvailableY >= CORRIDOR_SIZE + 2) {
-                Rectangle corridor;
                 if (yIntersectSource) {
                     corridor = createLineCorridor(false, source, target);
                 } else {
                     corridor = createLineCorridor(false, target, source);
                 }
-                return new Rectangle[]{corridor};
-            } else {
-                return createLShapeCorridor(source, target);
             }
-        } else {
-            return createLShapeCorridor(source, target);
         }
+
+        if (corridor != null) return new Rectangle[]{corridor};
+
+        // No straight corridor possible or every one of them overlaps something
+        return createLShapeCorridor(source, target);
     }
 
+    /**
+     * @return A straight corridor overlapping nothing, drawn uniformly among the free ones, null if there is none
+     */
     private Rectangle createLineCorridor(boolean onX, GameRoom source, GameRoom target) {
 
-        Gdx.app.log("CorridorGenerator", "  --> Creating straight line corridor");
+        Tracer.debug("CorridorGenerator", "  --> Creating straight line corridor");
 
-        int startLower;
-        int startUpper;
-        int start;
-
-        if (onX) {
-            if (source.x <= target.x && source.x + source.width >= target.x + target.width) {
-                startLower = (int) (target.x + 1);
-                startUpper = (int) (target.x - 1 + target.width - CORRIDOR_SIZE);
-            } else if (target.x <= source.x && target.x + target.width >= source.x + source.width) {
-                startLower = (int) (source.x + 1);
-                startUpper = (int) (source.x - 1 + source.width - CORRIDOR_SIZE);
-            } else {
-                startLower = (int) (target.x + 1);
-                startUpper = (int) (target.x - 1 + Vector2.dst(target.x, 0, source.x + source.width, 0) - CORRIDOR_SIZE);
-            }
-            start = getRandomInt(startLower, startUpper);
+        int shape = onX ? LINE_ON_X : LINE_ON_Y;
 
-            boolean sourceTop = (source.y >= target.y + target.height);
-            if (sourceTop) {
-                source.addEntrance(start, source.y, start + CORRIDOR_SIZE, source.y);
-                target.addEntrance(start, target.y + target.height, start + CORRIDOR_SIZE, target.y + target.height);
-                return new Rectangle(start, target.y + target.height, CORRIDOR_SIZE, Vector2.dst(0, source.y, 0, target.y + target.height));
-            } else {
-                source.addEntrance(start, source.y + source.height, start + CORRIDOR_SIZE, source.y + source.height);
-                target.addEntrance(start, target.y, start + CORRIDOR_SIZE, target.y);
-                return new Rectangle(start, source.y + source.height, CORRIDOR_SIZE, Vector2.dst(0, target.y, 0, source.y + source.height));
-            }
-        } else {
-            if (source.y <= target.y && source.y + source.height >= target.y + target.height) {
-                startLower = (int) (target.y + 1);
-                startUpper = (int) (target.y - 1 + target.height - CORRIDOR_SIZE);
-            } else if (target.y <= source.y && target.y + target.height >= source.y + source.height) {
-                startLower = (int) (source.y + 1);
-                startUpper = (int) (source.y - 1 + source.height - CORRIDOR_SIZE);
-            } else {
-                startLower = (int) (target.y + 1);
-                startUpper = (int) (target.y - 1 + Vector2.dst(0, target.y, 0, source.y + source.height) - CORRIDOR_SIZE);
-            }
-            start = getRandomInt(startLower, startUpper);
+        setOffsetRanges(shape, source, target);
+        int freeOffsetCount = findFreeOffsets(shape, source, target, freeOffsets[0]);
 
-            boolean sourceLeft = (source.x + source.width <= target.x);
-            if (sourceLeft) {
-                source.addEntrance(source.x + source.width, start, source.x + source.width, start + CORRIDOR_SIZE);
-                target.addEntrance(target.x, start, target.x, start + CORRIDOR_SIZE);
-                return new Rectangle(source.x + source.width, start, Vector2.dst(source.x + source.width, 0, target.x, 0), CORRIDOR_SIZE);
-            } else {
-                source.addEntrance(source.x, start, source.x , start + CORRIDOR_SIZE);
-                target.addEntrance(target.x + target.width, start, target.x + target.width, start + CORRIDOR_SIZE);
-                return new Rectangle(target.x + target.width, start, Vector2.dst(target.x + target.width, 0, source.x, 0), CORRIDOR_SIZE);
-            }
-        }
+        if (freeOffsetCount == 0) return null;
+
+        int start = pickFreeOffset(freeOffsets[0], freeOffsetCount);
+        Rectangle corridor = new Rectangle();
+
+        setCorridorParts(shape, source, target, start, 0, corridor, null);
+        addEntrances(shape, source, target, start, 0);
+
+        return corridor;
     }
 
     private int getRandomInt(int lower, int upper) {
-        RandomDataGenerator randomDataGenerator = new RandomDataGenerator();
-
         if (upper < lower) {
             upper = lower;
         }
 
-        return randomDataGenerator.nextInt(lower, upper);
+        return random.nextInt(lower, upper + 1);
     }
 
+    /**
+     * Draw an L shape corridor overlapping nothing, first picking its direction then its offsets.
+     * A direction is picked with a probability proportional to its share of free offsets,
+     * which gives the same distribution as drawing direction and offsets until they fit
+     * @return null if no L shape corridor fits
+     */
     private Rectangle[] createLShapeCorridor(GameRoom source, GameRoom target) {
 
-        Gdx.app.log("CorridorGenerator", "  --> Creating L shape corridor");
+        Tracer.debug("CorridorGenerator", "  --> Creating L shape corridor");
 
         Vector2 sourceCenter = new Vector2();
         Vector2 targetCenter = new Vector2();
@@ -255,263 +427,468 @@ public class CorridorGenerator {
         boolean rightTop    = canGoRight && canGoTop;
         boolean rightBottom = canGoRight && canGoBottom;
         boolean leftTop     = canGoLeft && canGoTop;
-        boolean leftBottom  = canGoLeft && canGoBottom;
 
-        int direction = getRandomInt(1, 2);
-        Rectangle first = null;
-        Rectangle second = null;
+        int firstShape;
+
+        if (rightTop) {
+            firstShape = RIGHT_TOP_1;
+        } else if (rightBottom) {
+            firstShape = RIGHT_BOTTOM_1;
+        } else if (leftTop) {
+            firstShape = LEFT_TOP_1;
+        } else {
+            firstShape = LEFT_BOTTOM_1;
+        }
+
+        // Free offsets and their share of the offsets of both directions, the picked one is drawn from them
+        for (int direction = 0; direction < 2; direction++) {
+            int shape = firstShape + direction;
+
+            setOffsetRanges(shape, source, target);
+            int offsetCount = (offsetRanges[1] - offsetRanges[0] + 1) * (offsetRanges[3] - offsetRanges[2] + 1);
+
+            freeOffsetCounts[direction] = findFreeOffsets(shape, source, target, freeOffsets[direction]);
+            freeShares[direction] = (float) freeOffsetCounts[direction] / offsetCount;
+        }
+
+        if (freeShares[0] + freeShares[1] == 0) return null;
 
-        int start;
-        int end;
+        int direction = random.nextDouble() * (freeShares[0] + freeShares[1]) < freeShares[0] ? 0 : 1;
+        int shape = firstShape + direction;
 
+        int start = pickFreeOffset(freeOffsets[direction], freeOffsetCounts[direction]);
+        int end = pickedEnd;
+
+        Rectangle first = new Rectangle();
+        Rectangle second = new Rectangle();
+
+        setCorridorParts(shape, source, target, start, end, first, second);
+        addEntrances(shape, source, target, start, end);
+
+        return new Rectangle[]{first, second};
+    }
+
+    /**
+     * Store in offsetRanges the ranges start and end of the shape are drawn from: startLower, startUpper, endLower, endUpper.
+     * Straight corridors only have a start, their end range is [0, 0]
+     */
+    private void setOffsetRanges(int shape, GameRoom source, GameRoom target) {
         int startLower;
         int startUpper;
-        int endLower;
-        int endUpper;
-
-        if (rightTop) {
-            switch (direction) {
-                case 1:
-                    if (target.y < source.y + source.height) {
-                        startLower = (int) (source.y + 1);
-                        startUpper = (int) (source.y + Vector2.dst(0, source.y, 0, target.y) - CORRIDOR_SIZE);
-                    } else {
-                        startLower = (int) (source.y + 1);
-                        startUpper = (int) (source.y - 1 + source.height - CORRIDOR_SIZE);
-                    }
-                    start = getRandomInt(startLower, startUpper);
-
-                    if (target.x < source.x + source.width) {
-                        endLower = (int) (source.x + source.width);
-                        endUpper = (int) (source.x - 1 + source.width + Vector2.dst(source.x + source.width, 0, target.x + target.width, 0) - CORRIDOR_SIZE);
-                    } else {
-                        endLower = (int) (target.x + 1);
-                        endUpper = (int) (target.x - 1 + target.width - CORRIDOR_SIZE);
-                    }
-                    end = getRandomInt(endLower, endUpper);
+        int endLower = 0;
+        int endUpper = 0;
+
+        switch (shape) {
+            case LINE_ON_X:
+                if (source.x <= target.x && source.x + source.width >= target.x + target.width) {
+                    startLower = (int) (target.x + 1);
+                    startUpper = (int) (target.x - 1 + target.width - CORRIDOR_SIZE);
+                } else if (target.x <= source.x && target.x + target.width >= source.x + source.width) {
+                    startLower = (int) (source.x + 1);
+                    startUpper = (int) (source.x - 1 + source.width - CORRIDOR_SIZE);
+                } else {
+                    startLower = (int) (target.x + 1);
+                    startUpper = (int) (target.x - 1 + Vector2.dst(target.x, 0, source.x + source.width, 0) - CORRIDOR_SIZE);
+                }
+                break;
+            case LINE_ON_Y:
+                if (source.y <= target.y && source.y + source.height >= target.y + target.height) {
+                    startLower = (int) (target.y + 1);
+                    startUpper = (int) (target.y - 1 + target.height - CORRIDOR_SIZE);
+                } else if (target.y <= source.y && target.y + target.height >= source.y + source.height) {
+                    startLower = (int) (source.y + 1);
+                    startUpper = (int) (source.y - 1 + source.height - CORRIDOR_SIZE);
+                } else {
+                    startLower = (int) (target.y + 1);
+                    startUpper = (int) (target.y - 1 + Vector2.dst(0, target.y, 0, source.y + source.height) - CORRIDOR_SIZE);
+                }
+                break;
+            case RIGHT_TOP_1:
+            case LEFT_TOP_1:
+                if (target.y < source.y + source.height) {
+                    startLower = (int) (source.y + 1);
+                    startUpper = (int) (source.y + Vector2.dst(0, source.y, 0, target.y) - CORRIDOR_SIZE);
+                } else {
+                    startLower = (int) (source.y + 1);
+                    startUpper = (int) (source.y - 1 + source.height - CORRIDOR_SIZE);
+                }
+                break;
+            case RIGHT_BOTTOM_1:
+            case LEFT_BOTTOM_1:
+                if (target.y + target.height > source.y) {
+                    startLower = (int) (target.y + target.height);
+                    startUpper = (int) (target.y - 1 + target.height + Vector2.dst(0, target.y + target.height, 0, source.y + source.height) - CORRIDOR_SIZE);
+                } else {
+                    startLower = (int) (source.y + 1);
+                    startUpper = (int) (source.y - 1 + source.height - CORRIDOR_SIZE);
+                }
+                break;
+            case RIGHT_TOP_2:
+            case RIGHT_BOTTOM_2:
+                if (target.x < source.x + source.width) {
+                    startLower = (int) (source.x + 1);
+                    startUpper = (int) (source.x + Vector2.dst(source.x, 0, target.x, 0) - CORRIDOR_SIZE);
+                } else {
+                    startLower = (int) (source.x + 1);
+                    startUpper = (int) (source.x - 1 + source.width - CORRIDOR_SIZE);
+                }
+                break;
+            case LEFT_TOP_2:
+            case LEFT_BOTTOM_2:
+            default:
+                if (target.x + target.width > source.x) {
+                    startLower = (int) (target.x + target.width);
+                    startUpper = (int) (target.x + target.width + Vector2.dst(target.x + target.width, 0, source.x + source.width, 0) - CORRIDOR_SIZE);
+                } else {
+                    startLower = (int) (source.x + 1);
+                    startUpper = (int) (source.x - 1 + source.width - CORRIDOR_SIZE);
+                }
+                break;
+        }
 
-                    first = new Rectangle(source.x + source.width, start, Vector2.dst(end, 0, source.x + source.width, 0), CORRIDOR_SIZE);
-                    second = new Rectangle(end, start, CORRIDOR_SIZE, Vector2.dst(0, start, 0, target.y));
+        switch (shape) {
+            case RIGHT_TOP_1:
+            case RIGHT_BOTTOM_1:
+                if (target.x < source.x + source.width) {
+                    endLower = (int) (source.x + source.width);
+                    endUpper = (int) (source.x - 1 + source.width + Vector2.dst(source.x + source.width, 0, target.x + target.width, 0) - CORRIDOR_SIZE);
+                } else {
+                    endLower = (int) (target.x + 1);
+                    endUpper = (int) (target.x - 1 + target.width - CORRIDOR_SIZE);
+                }
+                break;
+            case LEFT_TOP_1:
+            case LEFT_BOTTOM_1:
+                if (target.x + target.width > source.x) {
+                    endLower = (int) (target.x + 1);
+                    endUpper = (int) (target.x + Vector2.dst(target.x, 0, source.x, 0) - CORRIDOR_SIZE);
+                } else {
+                    endLower = (int) (target.x + 1);
+                    endUpper = (int) (target.x - 1 + target.width - CORRIDOR_SIZE);
+                }
+                break;
+            case RIGHT_TOP_2:
+            case LEFT_TOP_2:
+                if (target.y < source.y + source.height) {
+                    endLower = (int) (source.y + source.height);
+                    endUpper = (int) (source.y + source.height + Vector2.dst(0, source.y + source.height, 0, target.y + target.height) - CORRIDOR_SIZE);
+                } else {
+                    endLower = (int) (target.y + 1);
+                    endUpper = (int) (target.y - 1 + target.height - CORRIDOR_SIZE);
+                }
+                break;
+            case RIGHT_BOTTOM_2:
+            case LEFT_BOTTOM_2:
+                if (target.y + target.height > source.y) {
+                    endLower = (int) (target.y + 1);
+                    endUpper = (int) (target.y + Vector2.dst(0, target.y, 0, source.y) - CORRIDOR_SIZE);
+                } else {
+                    endLower = (int) (target.y + 1);
+                    endUpper = (int) (target.y - 1 + target.height - CORRIDOR_SIZE);
+                }
+                break;
+        }
 
-                    source.addEntrance(source.x + source.width, start, source.x + source.width, start + CORRIDOR_SIZE);
-                    target.addEntrance(end, target.y, end + CORRIDOR_SIZE, target.y);
-                    break;
-                case 2:
-                    if (target.x < source.x + source.width) {
-                        startLower = (int) (source.x + 1);
-                        startUpper = (int) (source.x + Vector2.dst(source.x, 0, target.x, 0) - CORRIDOR_SIZE);
-                    } else {
-                        startLower = (int) (source.x + 1);
-                        startUpper = (int) (source.x - 1 + source.width - CORRIDOR_SIZE);
-                    }
-                    start = getRandomInt(startLower, startUpper);
-
-                    if (target.y < source.y + source.height) {
-                        endLower = (int) (source.y + source.height);
-                        endUpper = (int) (source.y + source.height + Vector2.dst(0, source.y + source.height, 0, target.y + target.height) - CORRIDOR_SIZE);
-                    } else {
-                        endLower = (int) (target.y + 1);
-                        endUpper = (int) (target.y - 1 + target.height - CORRIDOR_SIZE);
-                    }
-                    end = getRandomInt(endLower, endUpper);
+        // Like getRandomInt, an empty range is the single value lower
+        offsetRanges[0] = startLower;
+        offsetRanges[1] = Math.max(startUpper, startLower);
+        offsetRanges[2] = endLower;
+        offsetRanges[3] = Math.max(endUpper, endLower);
+    }
 
-                    first = new Rectangle(start, source.y + source.height, CORRIDOR_SIZE, Vector2.dst(0, end, 0, source.y + source.height));
-                    second = new Rectangle(start, end, Vector2.dst(start, 0, target.x, 0), CORRIDOR_SIZE);
+    /**
+     * @param second Unused by straight corridors
+     */
+    private void setCorridorParts(int shape, GameRoom source, GameRoom target, int start, int end, Rectangle first, Rectangle second) {
+        switch (shape) {
+            case LINE_ON_X:
+                if (source.y >= target.y + target.height) {
+                    first.set(start, target.y + target.height, CORRIDOR_SIZE, Vector2.dst(0, source.y, 0, target.y + target.height));
+                } else {
+                    first.set(start, source.y + source.height, CORRIDOR_SIZE, Vector2.dst(0, target.y, 0, source.y + source.height));
+                }
+                break;
+            case LINE_ON_Y:
+                if (source.x + source.width <= target.x) {
+                    first.set(source.x + source.width, start, Vector2.dst(source.x + source.width, 0, target.x, 0), CORRIDOR_SIZE);
+                } else {
+                    first.set(target.x + target.width, start, Vector2.dst(target.x + target.width, 0, source.x, 0), CORRIDOR_SIZE);
+                }
+                break;
+            case RIGHT_TOP_1:
+                first.set(source.x + source.width, start, Vector2.dst(end, 0, source.x + source.width, 0), CORRIDOR_SIZE);
+                second.set(end, start, CORRIDOR_SIZE, Vector2.dst(0, start, 0, target.y));
+                break;
+            case RIGHT_TOP_2:
+                first.set(start, source.y + source.height, CORRIDOR_SIZE, Vector2.dst(0, end, 0, source.y + source.height));
+                second.set(start, end, Vector2.dst(start, 0, target.x, 0), CORRIDOR_SIZE);
+                break;
+            case RIGHT_BOTTOM_1:
+                first.set(source.x + source.width, start, Vector2.dst(end, 0, source.x + source.width, 0), CORRIDOR_SIZE);
+                second.set(end, target.y + target.height, CORRIDOR_SIZE, Vector2.dst(0, start + CORRIDOR_SIZE, 0, target.y + target.height));
+                break;
+            case RIGHT_BOTTOM_2:
+                first.set(start, end + CORRIDOR_SIZE, CORRIDOR_SIZE, Vector2.dst(0, end, 0, source.y));
+                second.set(start, end, Vector2.dst(start, 0, target.x, 0), CORRIDOR_SIZE);
+                break;
+            case LEFT_TOP_1:
+                first.set(end, start, Vector2.dst(source.x, 0, end, 0), CORRIDOR_SIZE);
+                second.set(end, start + CORRIDOR_SIZE, CORRIDOR_SIZE, Vector2.dst(0, start, 0, target.y));
+                break;
+            case LEFT_TOP_2:
+                first.set(start, source.y + source.height, CORRIDOR_SIZE, Vector2.dst(0, end, 0, source.y + source.height));
+                second.set(target.x + target.width, end, Vector2.dst(start + CORRIDOR_SIZE, 0, target.x + target.width, 0), CORRIDOR_SIZE);
+                break;
+            case LEFT_BOTTOM_1:
+                first.set(end, start, Vector2.dst(end, 0, source.x, 0), CORRIDOR_SIZE);
+                second.set(end, target.y + target.height, CORRIDOR_SIZE, Vector2.dst(0, start, 0, target.y + target.height));
+                break;
+            case LEFT_BOTTOM_2:
+                first.set(start, end, CORRIDOR_SIZE, Vector2.dst(0, end, 0, source.y));
+                second.set(target.x + target.width, end, Vector2.dst(start, 0, target.x + target.width, 0), CORRIDOR_SIZE);
+                break;
+        }
+    }
 
+    private void addEntrances(int shape, GameRoom source, GameRoom target, int start, int end) {
+        switch (shape) {
+            case LINE_ON_X:
+                if (source.y >= target.y + target.height) {
+                    source.addEntrance(start, source.y, start + CORRIDOR_SIZE, source.y);
+                    target.addEntrance(start, target.y + target.height, start + CORRIDOR_SIZE, target.y + target.height);
+                } else {
                     source.addEntrance(start, source.y + source.height, start + CORRIDOR_SIZE, source.y + source.height);
-                    target.addEntrance(target.x, end, target.x, end + CORRIDOR_SIZE);
-                    break;
+                    target.addEntrance(start, target.y, start + CORRIDOR_SIZE, target.y);
+                }
+                break;
+            case LINE_ON_Y:
+                if (source.x + source.width <= target.x) {
+                    source.addEntrance(source.x + source.width, start, source.x + source.width, start + CORRIDOR_SIZE);
+                    target.addEntrance(target.x, start, target.x, start + CORRIDOR_SIZE);
+                } else {
+                    source.addEntrance(source.x, start, source.x , start + CORRIDOR_SIZE);
+                    target.addEntrance(target.x + target.width, start, target.x + target.width, start + CORRIDOR_SIZE);
+                }
+                break;
+            case RIGHT_TOP_1:
+                source.addEntrance(source.x + source.width, start, source.x + source.width, start + CORRIDOR_SIZE);
+                target.addEntrance(end, target.y, end + CORRIDOR_SIZE, target.y);
+                break;
+            case RIGHT_TOP_2:
+                source.addEntrance(start, source.y + source.height, start + CORRIDOR_SIZE, source.y + source.height);
+                target.addEntrance(target.x, end, target.x, end + CORRIDOR_SIZE);
+                break;
+            case RIGHT_BOTTOM_1:
+                source.addEntrance(source.x + source.width, start, source.x + source.width, start + CORRIDOR_SIZE);
+                target.addEntrance(end, target.y + target.height, end + CORRIDOR_SIZE, target.y + target.height);
+                break;
+            case RIGHT_BOTTOM_2:
+                source.addEntrance(start, source.y, start + CORRIDOR_SIZE, source.y);
+                target.addEntrance(target.x, end, target.x, end + CORRIDOR_SIZE);
+                break;
+            case LEFT_TOP_1:
+                source.addEntrance(source.x, start, source.x, start + CORRIDOR_SIZE);
+                target.addEntrance(end, target.y, end + CORRIDOR_SIZE, target.y);
+                break;
+            case LEFT_TOP_2:
+                source.addEntrance(start, source.y + source.height, start + CORRIDOR_SIZE, source.y + source.height);
+                target.addEntrance(target.x + target.width, end, target.x + target.width, end + CORRIDOR_SIZE);
+                break;
+            case LEFT_BOTTOM_1:
+                source.addEntrance(source.x, start, source.x, start + CORRIDOR_SIZE);
+                target.addEntrance(end, target.y + target.height, end + CORRIDOR_SIZE, target.y + target.height);
+                break;
+            case LEFT_BOTTOM_2:
+                source.addEntrance(start, source.y, start + CORRIDOR_SIZE, source.y);
+                target.addEntrance(target.x + target.width, end, target.x + target.width, end + CORRIDOR_SIZE);
+                break;
+        }
+    }
+
+    /**
+     * Find every (start, end) pair in offsetRanges whose corridor parts overlap no room nor corridor.
+     * For a given end, every side of a part moves linearly with start, so each nearby obstacle forbids one interval of starts
+     * and the free starts are what is left of the start range once those intervals are removed
+     * @param offsets Where the free pairs are stored, as (end, first start, last start) triples
+     * @return The number of free pairs
+     */
+    private int findFreeOffsets(int shape, GameRoom source, GameRoom target, IntArray offsets) {
+        int startLower = offsetRanges[0];
+        int startUpper = offsetRanges[1];
+        int partCount = shape == LINE_ON_X || shape == LINE_ON_Y ? 1 : 2;
+
+        offsets.clear();
+        int freeOffsetCount = 0;
+
+        for (int end = offsetRanges[2]; end <= offsetRanges[3]; end++) {
+            forbiddenStarts.clear();
+
+            // Parts at the lowest start, one start later and the highest start, to get how each side moves with start
+            setCorridorParts(shape, source, target, startLower, end, lowerParts[0], lowerParts[1]);
+            setCorridorParts(shape, source, target, startLower + 1, end, nextParts[0], nextParts[1]);
+            setCorridorParts(shape, source, target, startUpper, end, upperParts[0], upperParts[1]);
+
+            for (int part = 0; part < partCount; part++) {
+                addForbiddenStarts(shape, source, target, end, part, startLower, startUpper);
             }
-        } else if (rightBottom) {
-            switch (direction) {
-                case 1:
-                    if (target.y + target.height > source.y) {
-                        startLower = (int) (target.y + target.height);
-                        startUpper = (int) (target.y - 1 + target.height + Vector2.dst(0, target.y + target.height, 0, source.y + source.height) - CORRIDOR_SIZE);
-                    } else {
-                        startLower = (int) (source.y + 1);
-                        startUpper = (int) (source.y - 1 + source.height - CORRIDOR_SIZE);
-                    }
-                    start = getRandomInt(startLower, startUpper);
-
-                    if (target.x < source.x + source.width) {
-                        endLower = (int) (source.x + source.width);
-                        endUpper = (int) (source.x - 1 + source.width + Vector2.dst(source.x + source.width, 0, target.x + target.width, 0) - CORRIDOR_SIZE);
-                    } else {
-                        endLower = (int) (target.x + 1);
-                        endUpper = (int) (target.x - 1 + target.width - CORRIDOR_SIZE);
-                    }
-                    end = getRandomInt(endLower, endUpper);
 
-                    first = new Rectangle(source.x + source.width, start, Vector2.dst(end, 0, source.x + source.width, 0), CORRIDOR_SIZE);
-                    second = new Rectangle(end, target.y + target.height, CORRIDOR_SIZE, Vector2.dst(0, start + CORRIDOR_SIZE, 0, target.y + target.height));
+            freeOffsetCount += addFreeStarts(offsets, end, startLower, startUpper);
+        }
 
-                    source.addEntrance(source.x + source.width, start, source.x + source.width, start + CORRIDOR_SIZE);
-                    target.addEntrance(end, target.y + target.height, end + CORRIDOR_SIZE, target.y + target.height);
-                    break;
-                case 2:
-                    if (target.x < source.x + source.width) {
-                        startLower = (int) (source.x + 1);
-                        startUpper = (int) (source.x + Vector2.dst(source.x, 0, target.x, 0) - CORRIDOR_SIZE);
-                    } else {
-                        startLower = (int) (source.x + 1);
-                        startUpper = (int) (source.x - 1 + source.width - CORRIDOR_SIZE);
-                    }
-                    start = getRandomInt(startLower, startUpper);
-
-                    if (target.y + target.height > source.y) {
-                        endLower = (int) (target.y + 1);
-                        endUpper = (int) (target.y + Vector2.dst(0, target.y, 0, source.y) - CORRIDOR_SIZE);
-                    } else {
-                        endLower = (int) (target.y + 1);
-                        endUpper = (int) (target.y - 1 + target.height - CORRIDOR_SIZE);
-                    }
-                    end = getRandomInt(endLower, endUpper);
+        if (Tracer.isDebugEnabled()) Tracer.debug("CorridorGenerator", "      --> {} free offsets", freeOffsetCount);
 
-                    first = new Rectangle(start, end + CORRIDOR_SIZE, CORRIDOR_SIZE, Vector2.dst(0, end, 0, source.y));
-                    second = new Rectangle(start, end, Vector2.dst(start, 0, target.x, 0), CORRIDOR_SIZE);
+        return freeOffsetCount;
+    }
 
-                    source.addEntrance(start, source.y, start + CORRIDOR_SIZE, source.y);
-                    target.addEntrance(target.x, end, target.x, end + CORRIDOR_SIZE);
-                    break;
-            }
-        } else if (leftTop) {
-            switch (direction) {
-                case 1:
-                    if (target.y < source.y + source.height) {
-                        startLower = (int) (source.y + 1);
-                        startUpper = (int) (source.y + Vector2.dst(0, source.y, 0, target.y) - CORRIDOR_SIZE);
-                    } else {
-                        startLower = (int) (source.y + 1);
-                        startUpper = (int) (source.y - 1 + source.height - CORRIDOR_SIZE);
-                    }
-                    start = getRandomInt(startLower, startUpper);
-
-                    if (target.x + target.width > source.x) {
-                        endLower = (int) (target.x + 1);
-                        endUpper = (int) (target.x + Vector2.dst(target.x, 0, source.x, 0) - CORRIDOR_SIZE);
-                    } else {
-                        endLower = (int) (target.x + 1);
-                        endUpper = (int) (target.x - 1 + target.width - CORRIDOR_SIZE);
-                    }
-                    end = getRandomInt(endLower, endUpper);
-
-                    first = new Rectangle(end, start, Vector2.dst(source.x, 0, end, 0), CORRIDOR_SIZE);
-                    second = new Rectangle(end, start + CORRIDOR_SIZE, CORRIDOR_SIZE, Vector2.dst(0, start, 0, target.y));
-
-                    source.addEntrance(source.x, start, source.x, start + CORRIDOR_SIZE);
-                    target.addEntrance(end, target.y, end + CORRIDOR_SIZE, target.y);
-                    break;
-                case 2:
-                    if (target.x + target.width > source.x) {
-                        startLower = (int) (target.x + target.width);
-                        startUpper = (int) (target.x + target.width + Vector2.dst(target.x + target.width, 0, source.x + source.width, 0) - CORRIDOR_SIZE);
-                    } else {
-                        startLower = (int) (source.x + 1);
-                        startUpper = (int) (source.x - 1 + source.width - CORRIDOR_SIZE);
-                    }
-                    start = getRandomInt(startLower, startUpper);
-
-                    if (target.y < source.y + source.height) {
-                        endLower = (int) (source.y + source.height);
-                        endUpper = (int) (source.y + source.height + Vector2.dst(0, source.y + source.height, 0, target.y + target.height) - CORRIDOR_SIZE);
-                    } else {
-                        endLower = (int) (target.y + 1);
-                        endUpper = (int) (target.y - 1 + target.height - CORRIDOR_SIZE);
-                    }
-                    end = getRandomInt(endLower, endUpper);
+    private void addForbiddenStarts(int shape, GameRoom source, GameRoom target, int end, int part, int startLower, int startUpper) {
+        Rectangle lower = lowerParts[part];
+        Rectangle next = nextParts[part];
+        Rectangle upper = upperParts[part];
 
-                    first = new Rectangle(start, source.y + source.height, CORRIDOR_SIZE, Vector2.dst(0, end, 0, source.y + source.height));
-                    second = new Rectangle(target.x + target.width, end, Vector2.dst(start + CORRIDOR_SIZE, 0, target.x + target.width, 0), CORRIDOR_SIZE);
+        float minXSlope = next.x - lower.x;
+        float maxXSlope = (next.x + next.width) - (lower.x + lower.width);
+        float minYSlope = next.y - lower.y;
+        float maxYSlope = (next.y + next.height) - (lower.y + lower.height);
 
-                    source.addEntrance(start, source.y + source.height, start + CORRIDOR_SIZE, source.y + source.height);
-                    target.addEntrance(target.x + target.width, end, target.x + target.width, end + CORRIDOR_SIZE);
-                    break;
-            }
-        } else if (leftBottom) {
-            switch (direction) {
-                case 1:
-                    if (target.y + target.height > source.y) {
-                        startLower = (int) (target.y + target.height);
-                        startUpper = (int) (target.y - 1 + target.height + Vector2.dst(0, target.y + target.height, 0, source.y + source.height) - CORRIDOR_SIZE);
-                    } else {
-                        startLower = (int) (source.y + 1);
-                        startUpper = (int) (source.y - 1 + source.height - CORRIDOR_SIZE);
-                    }
-                    start = getRandomInt(startLower, startUpper);
-
-                    if (target.x + target.width > source.x) {
-                        endLower = (int) (target.x + 1);
-                        endUpper = (int) (target.x + Vector2.dst(target.x, 0, source.x, 0) - CORRIDOR_SIZE);
-                    } else {
-                        endLower = (int) (target.x + 1);
-                        endUpper = (int) (target.x - 1 + target.width - CORRIDOR_SIZE);
-                    }
-                    end = getRandomInt(endLower, endUpper);
-
-                    first = new Rectangle(end, start, Vector2.dst(end, 0, source.x, 0), CORRIDOR_SIZE);
-                    second = new Rectangle(end, target.y + target.height, CORRIDOR_SIZE, Vector2.dst(0, start, 0, target.y + target.height));
-
-                    source.addEntrance(source.x, start, source.x, start + CORRIDOR_SIZE);
-                    target.addEntrance(end, target.y + target.height, end + CORRIDOR_SIZE, target.y + target.height);
-                    break;
-                case 2:
-                    if (target.x + target.width > source.x) {
-                        startLower = (int) (target.x + target.width);
-                        startUpper = (int) (target.x + target.width + Vector2.dst(target.x + target.width, 0, source.x + source.width, 0) - CORRIDOR_SIZE);
-                    } else {
-                        startLower = (int) (source.x + 1);
-                        startUpper = (int) (source.x - 1 + source.width - CORRIDOR_SIZE);
-                    }
-                    start = getRandomInt(startLower, startUpper);
-
-                    if (target.y + target.height > source.y) {
-                        endLower = (int) (target.y + 1);
-                        endUpper = (int) (target.y + Vector2.dst(0, target.y, 0, source.y) - CORRIDOR_SIZE);
-                    } else {
-                        endLower = (int) (target.y + 1);
-                        endUpper = (int) (target.y - 1 + target.height - CORRIDOR_SIZE);
-                    }
-                    end = getRandomInt(endLower, endUpper);
+        int range = startUpper - startLower;
 
-                    first = new Rectangle(start, end, CORRIDOR_SIZE, Vector2.dst(0, end, 0, source.y));
-                    second = new Rectangle(target.x + target.width, end, Vector2.dst(start, 0, target.x + target.width, 0), CORRIDOR_SIZE);
+        // Every obstacle the part can reach over the whole start range
+        float queryMinX = Math.min(lower.x, upper.x);
+        float queryMinY = Math.min(lower.y, upper.y);
+        float queryMaxX = Math.max(lower.x + lower.width, upper.x + upper.width);
+        float queryMaxY = Math.max(lower.y + lower.height, upper.y + upper.height);
 
-                    source.addEntrance(start, source.y, start + CORRIDOR_SIZE, source.y);
-                    target.addEntrance(target.x + target.width, end, target.x + target.width, end + CORRIDOR_SIZE);
-                    break;
+        obstacleGrid.query(queryMinX, queryMinY, queryMaxX - queryMinX, queryMaxY - queryMinY, nearbyObstacles);
+
+        boolean linear = upper.x == lower.x + minXSlope * range
+                && upper.x + upper.width == lower.x + lower.width + maxXSlope * range
+                && upper.y == lower.y + minYSlope * range
+                && upper.y + upper.height == lower.y + lower.height + maxYSlope * range;
+
+        if (!linear) {
+            // A length went through zero inside the range, check each start on its own
+            for (int start = startLower; start <= startUpper; start++) {
+                setCorridorParts(shape, source, target, start, end, startParts[0], startParts[1]);
+
+                for (int i = 0; i < nearbyObstacles.size; i++) {
+                    if (startParts[part].overlaps(obstacles.get(nearbyObstacles.get(i)))) {
+                        addForbiddenStarts(start, start);
+                        break;
+                    }
+                }
             }
+
+            return;
         }
 
-        return new Rectangle[]{first, second};
+        for (int i = 0; i < nearbyObstacles.size; i++) {
+            Rectangle obstacle = obstacles.get(nearbyObstacles.get(i));
+
+            // Starts (relative to startLower) for which every strict inequality of Rectangle.overlaps holds
+            int from = 0;
+            int to = range;
+
+            from = Math.max(from, lowestAbove(lower.x + lower.width, maxXSlope, obstacle.x));
+            to = Math.min(to, highestBelow(lower.x, minXSlope, obstacle.x + obstacle.width));
+            from = Math.max(from, lowestAbove(lower.y + lower.height, maxYSlope, obstacle.y));
+            to = Math.min(to, highestBelow(lower.y, minYSlope, obstacle.y + obstacle.height));
+
+            from = Math.max(from, lowestBelow(lower.x, minXSlope, obstacle.x + obstacle.width));
+            to = Math.min(to, highestAbove(lower.x + lower.width, maxXSlope, obstacle.x));
+            from = Math.max(from, lowestBelow(lower.y, minYSlope, obstacle.y + obstacle.height));
+            to = Math.min(to, highestAbove(lower.y + lower.height, maxYSlope, obstacle.y));
+
+            if (from > to) continue;
+
+            addForbiddenStarts(startLower + from, startLower + to);
+        }
     }
 
-    private boolean ensureNoCollisionCorridor(Array<GameRoom> rooms, Array<Rectangle> corridors, Rectangle[] corridor) {
+    private void addForbiddenStarts(int from, int to) {
+        forbiddenStarts.add(((long) from << 32) | (to & 0xffffffffL));
+    }
 
-        int roomCount = rooms.size;
-        int otherCorridorCount = corridors.size;
-        
-        Gdx.app.log("CorridorGenerator", "      --> Checking collision with " + roomCount + " rooms and " + otherCorridorCount + " corridors");
+    /**
+     * Starts of the free intervals left in [startLower, startUpper] once forbiddenStarts are removed
+     * @return The number of free starts
+     */
+    private int addFreeStarts(IntArray offsets, int end, int startLower, int startUpper) {
+        forbiddenStarts.sort();
 
-        for (int i = 0; i < corridor.length; i++) {
-            Rectangle corridorPart = corridor[i];
+        int freeStartCount = 0;
+        int cursor = startLower;
 
-            // Checking collision with other rooms
-            for (int j = 0; j < roomCount; j++) {
-                GameRoom room = rooms.get(j);
-                
-                if (corridorPart.overlaps(room)) return false;
+        for (int i = 0; i < forbiddenStarts.size; i++) {
+            long forbidden = forbiddenStarts.get(i);
+            int from = (int) (forbidden >> 32);
+            int to = (int) forbidden;
+
+            if (from > cursor) {
+                addFreeInterval(offsets, end, cursor, from - 1);
+                freeStartCount += from - cursor;
             }
 
-            // Checking collision with other corridors
-            for (int k = 0; k < otherCorridorCount; k++) {
-                Rectangle otherCorridorPart = corridors.get(k);
+            cursor = Math.max(cursor, to + 1);
+        }
+
+        if (cursor <= startUpper) {
+            addFreeInterval(offsets, end, cursor, startUpper);
+            freeStartCount += startUpper - cursor + 1;
+        }
+
+        return freeStartCount;
+    }
+
+    private static void addFreeInterval(IntArray offsets, int end, int from, int to) {
+        offsets.add(end);
+        offsets.add(from);
+        offsets.add(to);
+    }
+
+    /**
+     * Draw uniformly one of the pairs stored by findFreeOffsets
+     * @return The picked start, the picked end is in pickedEnd
+     */
+    private int pickFreeOffset(IntArray offsets, int freeOffsetCount) {
+        int remaining = getRandomInt(0, freeOffsetCount - 1);
+
+        for (int i = 0; i < offsets.size; i += 3) {
+            int from = offsets.get(i + 1);
+            int to = offsets.get(i + 2);
 
-                if (corridorPart.overlaps(otherCorridorPart)) return false;
+            if (remaining <= to - from) {
+                pickedEnd = offsets.get(i);
+                return from + remaining;
             }
+
+            remaining -= to - from + 1;
         }
 
-        return true;
+        throw new IllegalStateException("Free offset " + remaining + " out of " + freeOffsetCount);
+    }
+
+    // Bounds of the d >= 0 for which value + slope * d > threshold, d being the distance to the lowest start
+
+    private static int lowestAbove(float value, float slope, float threshold) {
+        if (slope > 0) return Math.max(0, (int) Math.floor((threshold - value) / slope) + 1);
+        return value > threshold ? 0 : Integer.MAX_VALUE;
+    }
+
+    private static int highestAbove(float value, float slope, float threshold) {
+        if (slope < 0) return (int) Math.ceil((threshold - value) / slope) - 1;
+        return value > threshold || slope > 0 ? Integer.MAX_VALUE : Integer.MIN_VALUE;
+    }
+
+    // Bounds of the d >= 0 for which value + slope * d < threshold
+
+    private static int lowestBelow(float value, float slope, float threshold) {
+        if (slope < 0) return Math.max(0, (int) Math.floor((threshold - value) / slope) + 1);
+        return value < threshold ? 0 : Integer.MAX_VALUE;
+    }
+
+    private static int highestBelow(float value, float slope, float threshold) {
+        if (slope > 0) return (int) Math.ceil((threshold - value) / slope) - 1;
+        return value < threshold || slope < 0 ? Integer.MAX_VALUE : Integer.MIN_VALUE;
     }
 
     public Array<GameCell> removeUselessCells(Array<GameCell> cells, Array<Rectangle> corridors) {
@@ -520,20 +897,73 @@ public class CorridorGenerator {
 
         Array<GameCell> remainingCells = new Array<>(cellCount);
 
+        if (corridorCount == 0) return remainingCells;
+
+        SpatialHashGrid cellGrid = createCellGrid(cells);
+        BitSet remainingCellIndices = new BitSet(cellCount);
+        ObjectSet<GameCell> remainingCellValues = new ObjectSet<>(cellCount);
+        IntArray nearbyCellIndices = new IntArray();
+        IntArray newCellIndices = new IntArray();
+
         for (int i = 0; i < corridorCount; i++) {
             Rectangle corridorPart = corridors.get(i);
+            newCellIndices.clear();
+
+            if (i == 0) {
+                for (int j = 0; j < cellCount; j++) {
+                    if (cells.get(j) instanceof GameRoom) newCellIndices.add(j);
+                }
+            }
+
+            cellGrid.query(corridorPart.x, corridorPart.y, corridorPart.width, corridorPart.height, nearbyCellIndices);
+
+            for (int k = 0; k < nearbyCellIndices.size; k++) {
+                int j = nearbyCellIndices.get(k);
+
+                if (!remainingCellIndices.get(j) && corridorPart.overlaps(cells.get(j))) newCellIndices.add(j);
+            }
+
+            // Cells reached by the same corridor part keep their relative order
+            newCellIndices.sort();
+
+            for (int k = 0; k < newCellIndices.size; k++) {
+                int j = newCellIndices.get(k);
+
+                if (remainingCellIndices.get(j)) continue;
 
-            for (int j = 0; j < cellCount; j++) {
                 GameCell cell = cells.get(j);
+                remainingCellIndices.set(j);
 
-                if (cell instanceof GameRoom || corridorPart.overlaps(cell)) {
-                    if (!remainingCells.contains(cell, false)) remainingCells.add(cell);
-                }
+                if (remainingCellValues.add(cell)) remainingCells.add(cell);
             }
         }
 
         remainingCells.shrink();
         return remainingCells;
     }
+
+    /**
+     * Index the cells that are not rooms, rooms are kept anyway
+     */
+    private SpatialHashGrid createCellGrid(Array<GameCell> cells) {
+        int cellCount = cells.size;
+        float sizeSum = 0f;
+
+        for (int i = 0; i < cellCount; i++) {
+            GameCell cell = cells.get(i);
+            sizeSum += Math.max(cell.width, cell.height);
+        }
+
+        float bucketSize = cellCount > 0 ? Math.max(sizeSum / cellCount, 1f) : 1f;
+        SpatialHashGrid grid = new SpatialHashGrid(bucketSize, cellCount);
+
+        for (int i = 0; i < cellCount; i++) {
+            GameCell cell = cells.get(i);
+
+            if (!(cell instanceof GameRoom)) grid.insert(i, cell.x, cell.y, cell.width, cell.height);
+        }
+
+        return grid;
+    }
 }
 
@@ -0,0 +1,11 @@
+package com.mygdx.dungen.mapgeneration;
+
+/**
+ * How corridors are drawn between the rooms of an edge
+ */
+public enum CorridorMode {
+    // Random straight or L shaped corridor, drawn among the offsets that overlap nothing
+    RANDOM,
+    // GridCorridorRouter, one A* search on the occupancy grid per edge, any number of bends
+    ASTAR
+}
@@ -0,0 +1,69 @@
+package com.mygdx.dungen.mapgeneration;
+
+/**
+ * Union find over int ids, with path halving and union by size.
+ */
+public class DisjointSets {
+
+    private int[] parents;
+    private int[] sizes;
+    private int setCount;
+
+    public DisjointSets() {
+        parents = new int[0];
+        sizes = new int[0];
+    }
+
+    /**
+     * Put each id from 0 to count - 1 in its own set
+     */
+    public void reset(int count) {
+        if (parents.length < count) {
+            parents = new int[count];
+            sizes = new int[count];
+        }
+
+        for (int i = 0; i < count; i++) {
+            parents[i] = i;
+            sizes[i] = 1;
+        }
+
+        setCount = count;
+    }
+
+    public int getSetCount() {
+        return setCount;
+    }
+
+    public int find(int i) {
+        while (parents[i] != i) {
+            // Path halving: every visited node skips to its grandparent
+            parents[i] = parents[parents[i]];
+            i = parents[i];
+        }
+
+        return i;
+    }
+
+    /**
+     * @return false if both were already in the same set
+     */
+    public boolean union(int a, int b) {
+        int rootA = find(a);
+        int rootB = find(b);
+
+        if (rootA == rootB) return false;
+
+        if (sizes[rootA] < sizes[rootB]) {
+            int tmp = rootA;
+            rootA = rootB;
+            rootB = tmp;
+        }
+
+        parents[rootB] = rootA;
+        sizes[rootA] += sizes[rootB];
+        setCount--;
+
+        return true;
+    }
+}
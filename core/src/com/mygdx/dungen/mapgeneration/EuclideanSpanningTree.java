@@ -0,0 +1,53 @@
+package com.mygdx.dungen.mapgeneration;
+
+import com.badlogic.gdx.utils.IntArray;
+
+import java.util.Arrays;
+
+/**
+ * Kruskal minimum spanning tree over primitive edge arrays, weighted by the squared distance between points.
+ * Edges are sorted once with a primitive sort and merged with a path compressed union find.
+ */
+public class EuclideanSpanningTree {
+
+    private final DisjointSets sets;
+
+    public EuclideanSpanningTree() {
+        sets = new DisjointSets();
+    }
+
+    /**
+     * @param points Point coordinates, x and y of each point consecutive
+     * @param edges Point indices of the edges, two consecutive values per edge
+     * @param treeEdges Cleared then filled with the indices (in edges / 2) of the edges of the tree, by increasing length
+     */
+    public void findTreeEdges(float[] points, IntArray edges, IntArray treeEdges) {
+        treeEdges.clear();
+
+        int edgeCount = edges.size / 2;
+        int pointCount = points.length / 2;
+
+        if (edgeCount == 0) return;
+
+        // Squared lengths are >= 0, so their float bits sort like the floats, edge index kept in the low bits
+        long[] keys = new long[edgeCount];
+
+        for (int e = 0; e < edgeCount; e++) {
+            int a = edges.get(2 * e);
+            int b = edges.get(2 * e + 1);
+            float diffX = points[2 * a] - points[2 * b];
+            float diffY = points[2 * a + 1] - points[2 * b + 1];
+
+            keys[e] = ((long) Float.floatToIntBits(diffX * diffX + diffY * diffY) << 32) | e;
+        }
+
+        Arrays.sort(keys);
+        sets.reset(pointCount);
+
+        for (int k = 0; k < edgeCount && treeEdges.size < pointCount - 1; k++) {
+            int e = (int) keys[k];
+
+            if (sets.union(edges.get(2 * e), edges.get(2 * e + 1))) treeEdges.add(e);
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package com.mygdx.dungen.mapgeneration;
+
+/**
+ * How MapGenerator.generate gets a map out of generateMap
+ */
+public enum GenerationMode {
+    // One generateMap call after another on the calling thread, up to MAX_GEN_TRY failures
+    SEQUENTIAL,
+    // SPECULATIVE_CANDIDATES independent sequential generations raced on an executor, the first map wins and the others are cancelled
+    SPECULATIVE
+}
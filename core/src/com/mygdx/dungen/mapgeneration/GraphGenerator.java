@@ -1,21 +1,16 @@
 package com.mygdx.dungen.mapgeneration;
 
-import com.badlogic.gdx.Gdx;
-import com.badlogic.gdx.math.DelaunayTriangulator;
 import com.badlogic.gdx.math.MathUtils;
 import com.badlogic.gdx.math.Vector2;
 import com.badlogic.gdx.utils.Array;
 import com.badlogic.gdx.utils.FloatArray;
-import com.badlogic.gdx.utils.ShortArray;
+import com.badlogic.gdx.utils.IntArray;
+import com.badlogic.gdx.utils.LongArray;
 import com.mygdx.dungen.GameCell;
 import com.mygdx.dungen.GameMap;
 import com.mygdx.dungen.GameRoom;
-import org.apache.commons.math3.random.RandomDataGenerator;
-import org.jgrapht.alg.KruskalMinimumSpanningTree;
-import org.jgrapht.graph.Multigraph;
 
-import java.util.HashSet;
-import java.util.Set;
+import java.util.SplittableRandom;
 
 /**
  * @author leonard
@@ -23,99 +18,309 @@ import java.util.Set;
  */
 public class GraphGenerator {
 
-    public GraphGenerator() {}
+    private final GraphMode mode;
+    private final SweepHullTriangulator triangulator;
+    private final EuclideanSpanningTree spanningTree;
 
-    public Multigraph<GameRoom, NoDuplicateEdge> generateMinimalSpanningTree(Array<GameCell> cells, float remainingEdgesMultiplier) {
-        Gdx.app.log("GraphGenerator", "----------------- Generating minimal spanning tree -----------------");
+    // Every triangulation edge of the last generated graph
+    private RoomGraph triangulation;
 
-        Array<GameRoom> rooms = GameMap.extractRooms(cells);
-        ShortArray trianglesIndices = generateTrianglesIndices(cells);
+    // Scratch of isLuneBlocked, a room is visited when its mark equals visitMark
+    private int[] visitMarks = new int[0];
+    private int visitMark;
+    private final IntArray visitStack = new IntArray();
 
-        Multigraph<GameRoom, NoDuplicateEdge> graph = getGraphFromTriangulation(trianglesIndices, rooms);
+    private SplittableRandom random;
 
-        Set<NoDuplicateEdge> minEdges = new KruskalMinimumSpanningTree(graph).getMinimumSpanningTreeEdgeSet();
-//        Set<NoDuplicateEdge> minEdges = new PrimMinimumSpanningTree(graph).getMinimumSpanningTreeEdgeSet();
+    public GraphGenerator(GraphMode mode) {
+        this.mode = mode;
+        triangulator = new SweepHullTriangulator();
+        spanningTree = new EuclideanSpanningTree();
+        random = new SplittableRandom();
+    }
 
-        minimumSpanningTreeFromGraph(graph, minEdges, remainingEdgesMultiplier);
+    /**
+     * @param random Source of every random draw of this generator, one split of the map seed
+     */
+    public void setRandom(SplittableRandom random) {
+        this.random = random;
+    }
 
-        Gdx.app.log("GraphGenerator", "  --> Graph is now a minimal spanning tree. Edge count: " + graph.edgeSet().size());
+    /**
+     * @param remainingEdgesMultiplier Share of extra edges kept in SPANNING_TREE mode, unused by the other modes
+     */
+    public RoomGraph generateCorridorsGraph(Array<GameCell> cells, float remainingEdgesMultiplier) {
+        Tracer.info("GraphGenerator", "----------------- Generating corridors graph ({}) -----------------", mode);
+
+        Array<GameRoom> rooms = GameMap.extractRooms(cells);
+        float[] roomCenterPoints = getRoomCenterPoints(cells);
+        IntArray trianglesIndices = generateTrianglesIndices(roomCenterPoints);
+
+        IntArray edges = getEdgesFromTriangulation(trianglesIndices);
+        triangulation = new RoomGraph(rooms, edges);
+        RoomGraph graph;
+
+        switch (mode) {
+            case GABRIEL:
+            case RELATIVE_NEIGHBOURHOOD:
+                graph = new RoomGraph(rooms, filterProximityEdges(triangulation, roomCenterPoints));
+                break;
+            case SPANNING_TREE:
+            default:
+                IntArray treeEdges = findMinimalSpanningTreeEdges(edges, roomCenterPoints, rooms.size);
+                graph = new RoomGraph(rooms, selectRemainingEdges(edges, treeEdges, remainingEdgesMultiplier));
+                break;
+        }
+
+        Tracer.info("GraphGenerator", "  --> Corridors graph generated. Edge count: {}", graph.getEdgeCount());
 
         return graph;
     }
 
-    private void minimumSpanningTreeFromGraph(Multigraph<GameRoom, NoDuplicateEdge> graph, Set<NoDuplicateEdge> minEdges, float remainingEdgesMultiplier) {
+    /**
+     * @return Every edge of the triangulation the last corridors graph was taken from, with the same room ids.
+     * Its edges missing from the corridors graph are the replacements of the corridors that can't be drawn
+     */
+    public RoomGraph getTriangulation() {
+        return triangulation;
+    }
 
-        Gdx.app.log("GraphGenerator", "  --> Removing useless edges from graph");
+    /**
+     * Keep the Delaunay edges that have no other room center in their diameter circle (GABRIEL)
+     * or in their lune (RELATIVE_NEIGHBOURHOOD), in one pass over the triangulation edges
+     * @param triangulation Every edge of the triangulation
+     * @return Room ids of the kept edges, two consecutive values per edge
+     */
+    private IntArray filterProximityEdges(RoomGraph triangulation, float[] roomCenterPoints) {
 
-        Set<NoDuplicateEdge> allEdges = graph.edgeSet();
+        Tracer.info("GraphGenerator", "  --> Filtering triangulation edges");
 
-        HashSet<NoDuplicateEdge> unusedEdges = new HashSet<>(allEdges);
-        unusedEdges.removeAll(minEdges);
+        int edgeCount = triangulation.getEdgeCount();
+        IntArray keptEdges = new IntArray(2 * edgeCount);
 
-        int minEdgeSize = minEdges.size();
-        int remainingEdgeCount = Math.round(minEdgeSize * remainingEdgesMultiplier);
-        Gdx.app.log("GraphGenerator", "  --> " + remainingEdgeCount + " (" + minEdgeSize + " x " + remainingEdgesMultiplier + ") " + (remainingEdgeCount > 1 ? "edges" : "edge") + " will remain from the triangulation graph");
-        remainingEdgeCount = MathUtils.clamp(remainingEdgeCount, 0, unusedEdges.size());
-        Gdx.app.log("GraphGenerator", "      --> Clamped to " + remainingEdgeCount);
+        if (visitMarks.length < triangulation.getRoomCount()) visitMarks = new int[triangulation.getRoomCount()];
+
+        for (int e = 0; e < edgeCount; e++) {
+            int source = triangulation.getEdgeSource(e);
+            int target = triangulation.getEdgeTarget(e);
+
+            boolean blocked = mode == GraphMode.GABRIEL
+                    ? isDiameterCircleBlocked(triangulation, roomCenterPoints, source, target)
+                    : isLuneBlocked(triangulation, roomCenterPoints, source, target);
+
+            if (blocked) continue;
+
+            keptEdges.add(source);
+            keptEdges.add(target);
+        }
+
+        Tracer.info("GraphGenerator", "      --> {} of {} edges kept", keptEdges.size / 2, edgeCount);
+
+        return keptEdges;
+    }
+
+    /**
+     * A point in the diameter circle of a Delaunay edge means the opposite vertex of one of its triangles is in it too,
+     * and both are neighbours of source, so checking the neighbours of source is enough
+     */
+    private boolean isDiameterCircleBlocked(RoomGraph triangulation, float[] points, int source, int target) {
+        float sourceX = points[2 * source];
+        float sourceY = points[2 * source + 1];
+        float targetX = points[2 * target];
+        float targetY = points[2 * target + 1];
 
-        while (remainingEdgeCount > 0) {
-            int remainingEdgeIndex = new RandomDataGenerator().nextInt(0, unusedEdges.size() - 1);
+        int degree = triangulation.getDegree(source);
 
-            NoDuplicateEdge edge = (NoDuplicateEdge) unusedEdges.toArray()[remainingEdgeIndex];
+        for (int i = 0; i < degree; i++) {
+            int neighbour = triangulation.getNeighbour(source, i);
 
-            if (minEdges.contains(edge)) continue;
+            if (neighbour == target) continue;
 
-            unusedEdges.remove(edge);
+            float x = points[2 * neighbour];
+            float y = points[2 * neighbour + 1];
 
-            remainingEdgeCount--;
+            // Inside the diameter circle when the edge is seen at an obtuse angle
+            if ((sourceX - x) * (targetX - x) + (sourceY - y) * (targetY - y) < 0) return true;
         }
 
-        unusedEdges.forEach(graph::removeEdge);
+        return false;
     }
 
-    private Multigraph<GameRoom, NoDuplicateEdge> getGraphFromTriangulation(ShortArray trianglesIndices, Array<GameRoom> rooms) {
+    /**
+     * The lune is inside the circle of center source going through target. Every Delaunay vertex in that circle
+     * has a neighbour closer to source, so a walk from source through the neighbours inside the circle visits all of them
+     */
+    private boolean isLuneBlocked(RoomGraph triangulation, float[] points, int source, int target) {
+        float sourceX = points[2 * source];
+        float sourceY = points[2 * source + 1];
+        float targetX = points[2 * target];
+        float targetY = points[2 * target + 1];
+
+        float edgeLength2 = Vector2.dst2(sourceX, sourceY, targetX, targetY);
+
+        visitMark++;
+        visitMarks[source] = visitMark;
+        visitStack.clear();
+        visitStack.add(source);
+
+        while (visitStack.size > 0) {
+            int room = visitStack.pop();
+            int degree = triangulation.getDegree(room);
+
+            for (int i = 0; i < degree; i++) {
+                int neighbour = triangulation.getNeighbour(room, i);
+
+                if (visitMarks[neighbour] == visitMark) continue;
+                visitMarks[neighbour] = visitMark;
+
+                if (neighbour == target) continue;
+
+                float x = points[2 * neighbour];
+                float y = points[2 * neighbour + 1];
+                float sourceDistance2 = Vector2.dst2(x, y, sourceX, sourceY);
 
-        Gdx.app.log("GraphGenerator", "  --> Generating graph from triangulation");
+                if (sourceDistance2 >= edgeLength2) continue;
 
-        Multigraph<GameRoom, NoDuplicateEdge> graph = new Multigraph<>(NoDuplicateEdge.class);
+                // Inside the lune when closer than the edge length to both ends
+                if (Vector2.dst2(x, y, targetX, targetY) < edgeLength2) return true;
+
+                visitStack.add(neighbour);
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Kruskal over the triangulation edges weighted by the distance between room centers
+     * @return The indices of the tree edges, shortest first
+     */
+    private IntArray findMinimalSpanningTreeEdges(IntArray edges, float[] roomCenterPoints, int roomCount) {
+
+        Tracer.info("GraphGenerator", "  --> Finding shortest spanning tree");
+
+        IntArray treeEdges = new IntArray(roomCount);
+        spanningTree.findTreeEdges(roomCenterPoints, edges, treeEdges);
+
+        return treeEdges;
+    }
+
+    /**
+     * @return The distinct edges of the triangles, two consecutive room indices per edge, lowest index first
+     */
+    private IntArray getEdgesFromTriangulation(IntArray trianglesIndices) {
+
+        Tracer.info("GraphGenerator", "  --> Generating graph from triangulation");
 
         int indexCount = trianglesIndices.size;
+        LongArray keys = new LongArray(indexCount);
 
         for (int i = 2; i < indexCount; i += 3) {
-            short index1 = trianglesIndices.get(i - 2);
-            short index2 = trianglesIndices.get(i - 1);
-            short index3 = trianglesIndices.get(i);
+            int index1 = trianglesIndices.get(i - 2);
+            int index2 = trianglesIndices.get(i - 1);
+            int index3 = trianglesIndices.get(i);
+
+            keys.add(edgeKey(index1, index2));
+            keys.add(edgeKey(index2, index3));
+            keys.add(edgeKey(index3, index1));
+        }
 
-            GameRoom room1 = rooms.get(index1);
-            GameRoom room2 = rooms.get(index2);
-            GameRoom room3 = rooms.get(index3);
+        // Edges shared by two triangles end up next to each other
+        keys.sort();
 
-            graph.addVertex(room1);
-            graph.addVertex(room2);
-            graph.addVertex(room3);
+        IntArray edges = new IntArray(keys.size);
 
-            if (!graph.containsEdge(room1, room2)) graph.addEdge(room1, room2);
-            if (!graph.containsEdge(room2, room3)) graph.addEdge(room2, room3);
-            if (!graph.containsEdge(room3, room1)) graph.addEdge(room3, room1);
+        for (int i = 0; i < keys.size; i++) {
+            long key = keys.get(i);
 
+            if (i > 0 && key == keys.get(i - 1)) continue;
+
+            edges.add((int) (key >>> 32));
+            edges.add((int) key);
         }
 
-        return graph;
+        return edges;
     }
 
+    private static long edgeKey(int index1, int index2) {
+        return ((long) Math.min(index1, index2) << 32) | Math.max(index1, index2);
+    }
 
-    private ShortArray generateTrianglesIndices(Array<GameCell> cells) {
+    /**
+     * Keep the tree edges and (tree edge count x remainingEdgesMultiplier) random other edges from the triangulation
+     * @return Room ids of the kept edges, two consecutive values per edge, tree edges first
+     */
+    private IntArray selectRemainingEdges(IntArray edges, IntArray treeEdges, float remainingEdgesMultiplier) {
 
-        Gdx.app.log("GraphGenerator", "  --> Generating Delaunay Triangulation");
+        Tracer.info("GraphGenerator", "  --> Removing useless edges from graph");
 
-        float[] roomCenterPoints = getRoomCenterPoints(cells);
+        int edgeCount = edges.size / 2;
+        boolean[] isTreeEdge = new boolean[edgeCount];
+
+        for (int i = 0; i < treeEdges.size; i++) {
+            isTreeEdge[treeEdges.get(i)] = true;
+        }
+
+        int[] unusedEdges = new int[edgeCount - treeEdges.size];
+        int unusedEdgeCount = 0;
+
+        for (int e = 0; e < edgeCount; e++) {
+            if (!isTreeEdge[e]) unusedEdges[unusedEdgeCount++] = e;
+        }
+
+        int minEdgeSize = treeEdges.size;
+        int remainingEdgeCount = Math.round(minEdgeSize * remainingEdgesMultiplier);
+        Tracer.info("GraphGenerator", "  --> {} ({} x {}) {} will remain from the triangulation graph", remainingEdgeCount, minEdgeSize, remainingEdgesMultiplier, remainingEdgeCount > 1 ? "edges" : "edge");
+        remainingEdgeCount = MathUtils.clamp(remainingEdgeCount, 0, unusedEdgeCount);
+        Tracer.info("GraphGenerator", "      --> Clamped to {}", remainingEdgeCount);
+
+        selectRandomEdges(unusedEdges, remainingEdgeCount);
+
+        IntArray remainingEdges = new IntArray(2 * (minEdgeSize + remainingEdgeCount));
+
+        for (int i = 0; i < minEdgeSize; i++) {
+            addEdge(remainingEdges, edges, treeEdges.get(i));
+        }
+
+        // The first remainingEdgeCount unused edges are kept, the others dropped
+        for (int i = 0; i < remainingEdgeCount; i++) {
+            addEdge(remainingEdges, edges, unusedEdges[i]);
+        }
+
+        return remainingEdges;
+    }
+
+    private void addEdge(IntArray destination, IntArray edges, int edge) {
+        destination.add(edges.get(2 * edge));
+        destination.add(edges.get(2 * edge + 1));
+    }
+
+    /**
+     * Partial Fisher-Yates shuffle: moves a uniformly random subset of count edges to the front of the array in O(count)
+     */
+    private void selectRandomEdges(int[] edges, int count) {
+        for (int i = 0; i < count; i++) {
+            int j = random.nextInt(i, edges.length);
+
+            int tmp = edges[i];
+            edges[i] = edges[j];
+            edges[j] = tmp;
+        }
+    }
+
+    private IntArray generateTrianglesIndices(float[] roomCenterPoints) {
+
+        Tracer.info("GraphGenerator", "  --> Generating Delaunay Triangulation");
+
+        IntArray trianglesIndices = new IntArray(6 * roomCenterPoints.length / 2);
+        triangulator.computeTriangles(roomCenterPoints, trianglesIndices);
 
-        return new DelaunayTriangulator().computeTriangles(roomCenterPoints, false);
+        return trianglesIndices;
     }
 
     private float[] getRoomCenterPoints(Array<GameCell> cells) {
 
-        Gdx.app.log("GraphGenerator", "      --> Getting rooms center points");
+        Tracer.info("GraphGenerator", "      --> Getting rooms center points");
 
         int cellCount = cells.size;
         FloatArray points = new FloatArray(cellCount);
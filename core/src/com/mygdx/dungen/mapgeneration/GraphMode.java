@@ -0,0 +1,13 @@
+package com.mygdx.dungen.mapgeneration;
+
+/**
+ * Edges of the triangulation kept as corridors
+ */
+public enum GraphMode {
+    // Minimal spanning tree plus (tree edge count x REMAINING_EDGES_MULTIPLIER) random other edges
+    SPANNING_TREE,
+    // Edges whose diameter circle holds no other room center, contains the minimal spanning tree
+    GABRIEL,
+    // Edges whose lune holds no other room center, between GABRIEL and the minimal spanning tree
+    RELATIVE_NEIGHBOURHOOD
+}
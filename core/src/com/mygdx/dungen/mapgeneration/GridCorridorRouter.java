@@ -0,0 +1,405 @@
+package com.mygdx.dungen.mapgeneration;
+
+import com.badlogic.gdx.math.Rectangle;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.IntArray;
+import com.mygdx.dungen.GameRoom;
+
+import java.util.Arrays;
+
+/**
+ * A* corridor router over an occupancy grid of the rooms and placed corridors.
+ * The corridor is a square of corridorSize tiles moved one tile at a time, a position is free when none of its tiles is occupied.
+ * It leaves the source room straight out of one of its sides and enters the target the same way,
+ * changing direction costs turnPenalty extra steps so straight corridors and single bends are preferred.
+ */
+public class GridCorridorRouter {
+
+    private static final int RIGHT = 0;
+    private static final int UP = 1;
+    private static final int LEFT = 2;
+    private static final int DOWN = 3;
+
+    private static final int[] DIRECTION_X = {1, 0, -1, 0};
+    private static final int[] DIRECTION_Y = {0, 1, 0, -1};
+
+    private final int corridorSize;
+    private final int turnPenalty;
+    private final int margin;
+
+    // Grid origin and size in tiles, tile (x, y) is at index y * gridWidth + x
+    private int originX;
+    private int originY;
+    private int gridWidth;
+    private int gridHeight;
+
+    private boolean[] occupied;
+    // Occupied tile count of [0, x) x [0, y), at index y * (gridWidth + 1) + x
+    private int[] occupiedSums;
+    private boolean occupiedSumsDirty;
+
+    // Search state of position * 4 + direction, only valid when its stamp equals searchStamp
+    private int[] costs;
+    private int[] parents;
+    private int[] openStamps;
+    private int[] closedStamps;
+    private int searchStamp;
+
+    private long[] heap;
+    private int heapSize;
+
+    private final IntArray path;
+
+    /**
+     * @param margin Free tiles around the rooms where corridors can go
+     */
+    public GridCorridorRouter(int corridorSize, int turnPenalty, int margin) {
+        this.corridorSize = corridorSize;
+        this.turnPenalty = turnPenalty;
+        this.margin = margin;
+
+        heap = new long[64];
+        path = new IntArray();
+    }
+
+    /**
+     * Size the grid around the rooms and mark them as occupied, previously blocked corridors are forgotten
+     */
+    public void reset(Array<GameRoom> rooms) {
+        int minX = Integer.MAX_VALUE;
+        int minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE;
+        int maxY = Integer.MIN_VALUE;
+
+        for (int i = 0; i < rooms.size; i++) {
+            GameRoom room = rooms.get(i);
+
+            minX = Math.min(minX, (int) Math.floor(room.x));
+            minY = Math.min(minY, (int) Math.floor(room.y));
+            maxX = Math.max(maxX, (int) Math.ceil(room.x + room.width));
+            maxY = Math.max(maxY, (int) Math.ceil(room.y + room.height));
+        }
+
+        if (rooms.size == 0) minX = minY = maxX = maxY = 0;
+
+        originX = minX - margin;
+        originY = minY - margin;
+        gridWidth = maxX - minX + 2 * margin;
+        gridHeight = maxY - minY + 2 * margin;
+
+        int tileCount = gridWidth * gridHeight;
+        int stateCount = 4 * tileCount;
+
+        if (occupied == null || occupied.length < tileCount) occupied = new boolean[tileCount];
+        else Arrays.fill(occupied, 0, tileCount, false);
+
+        if (occupiedSums == null || occupiedSums.length < (gridWidth + 1) * (gridHeight + 1)) occupiedSums = new int[(gridWidth + 1) * (gridHeight + 1)];
+
+        if (costs == null || costs.length < stateCount) {
+            costs = new int[stateCount];
+            parents = new int[stateCount];
+            openStamps = new int[stateCount];
+            closedStamps = new int[stateCount];
+            searchStamp = 0;
+        }
+
+        for (int i = 0; i < rooms.size; i++) {
+            block(rooms.get(i));
+        }
+    }
+
+    /**
+     * Mark every tile of the rectangle as occupied
+     */
+    public void block(Rectangle rectangle) {
+        int startX = Math.max((int) Math.floor(rectangle.x) - originX, 0);
+        int startY = Math.max((int) Math.floor(rectangle.y) - originY, 0);
+        int endX = Math.min((int) Math.ceil(rectangle.x + rectangle.width) - originX, gridWidth);
+        int endY = Math.min((int) Math.ceil(rectangle.y + rectangle.height) - originY, gridHeight);
+
+        if (endX <= startX) return;
+
+        for (int y = startY; y < endY; y++) {
+            Arrays.fill(occupied, y * gridWidth + startX, y * gridWidth + endX, true);
+        }
+
+        occupiedSumsDirty = true;
+    }
+
+    /**
+     * Find the cheapest corridor from a side of source to a side of target and add its entrances to both rooms.
+     * The corridor is not blocked, call {@link #block(Rectangle)} on its parts once it is kept
+     * @return The corridor as non overlapping rectangles, one per straight segment, null if there is no free path
+     */
+    public Rectangle[] route(GameRoom source, GameRoom target) {
+        if (occupiedSumsDirty) computeOccupiedSums();
+
+        searchStamp++;
+        heapSize = 0;
+
+        addStartStates(source, target);
+
+        int goalState = -1;
+
+        while (heapSize > 0) {
+            int state = (int) popHeap();
+
+            if (closedStamps[state] == searchStamp) continue;
+            closedStamps[state] = searchStamp;
+
+            int position = state >> 2;
+            int direction = state & 3;
+            int x = position % gridWidth;
+            int y = position / gridWidth;
+
+            if (isGoal(x, y, direction, target)) {
+                goalState = state;
+                break;
+            }
+
+            for (int nextDirection = 0; nextDirection < 4; nextDirection++) {
+                // No going back on itself
+                if (nextDirection == (direction + 2) % 4) continue;
+
+                int nextX = x + DIRECTION_X[nextDirection];
+                int nextY = y + DIRECTION_Y[nextDirection];
+
+                if (!isFree(nextX, nextY)) continue;
+
+                int cost = costs[state] + 1 + (nextDirection == direction ? 0 : turnPenalty);
+                open((nextY * gridWidth + nextX) * 4 + nextDirection, cost, state, nextX, nextY, target);
+            }
+        }
+
+        if (goalState == -1) return null;
+
+        return buildCorridor(goalState, source, target);
+    }
+
+    /**
+     * Every free position touching a side of source, away from its corners, heading out of the room
+     */
+    private void addStartStates(GameRoom source, GameRoom target) {
+        int left = (int) source.x - originX;
+        int bottom = (int) source.y - originY;
+        int right = left + (int) source.width;
+        int top = bottom + (int) source.height;
+
+        for (int x = left + 1; x <= right - 1 - corridorSize; x++) {
+            openStart(x, top, UP, target);
+            openStart(x, bottom - corridorSize, DOWN, target);
+        }
+
+        for (int y = bottom + 1; y <= top - 1 - corridorSize; y++) {
+            openStart(right, y, RIGHT, target);
+            openStart(left - corridorSize, y, LEFT, target);
+        }
+    }
+
+    private void openStart(int x, int y, int direction, GameRoom target) {
+        if (isFree(x, y)) open((y * gridWidth + x) * 4 + direction, 0, -1, x, y, target);
+    }
+
+    private void open(int state, int cost, int parent, int x, int y, GameRoom target) {
+        if (closedStamps[state] == searchStamp) return;
+        if (openStamps[state] == searchStamp && costs[state] <= cost) return;
+
+        openStamps[state] = searchStamp;
+        costs[state] = cost;
+        parents[state] = parent;
+
+        pushHeap(((long) (cost + estimateCost(x, y, target)) << 32) | state);
+    }
+
+    /**
+     * Tiles left to cross before touching the target, never more than the real cost
+     */
+    private int estimateCost(int x, int y, GameRoom target) {
+        int left = (int) target.x - originX;
+        int bottom = (int) target.y - originY;
+        int right = left + (int) target.width;
+        int top = bottom + (int) target.height;
+
+        int gapX = Math.max(0, Math.max(left - (x + corridorSize), x - right));
+        int gapY = Math.max(0, Math.max(bottom - (y + corridorSize), y - top));
+
+        return gapX + gapY;
+    }
+
+    /**
+     * Touching a side of target, away from its corners, heading into the room
+     */
+    private boolean isGoal(int x, int y, int direction, GameRoom target) {
+        int left = (int) target.x - originX;
+        int bottom = (int) target.y - originY;
+        int right = left + (int) target.width;
+        int top = bottom + (int) target.height;
+
+        boolean alongX = x >= left + 1 && x <= right - 1 - corridorSize;
+        boolean alongY = y >= bottom + 1 && y <= top - 1 - corridorSize;
+
+        switch (direction) {
+            case UP:
+                return alongX && y + corridorSize == bottom;
+            case DOWN:
+                return alongX && y == top;
+            case RIGHT:
+                return alongY && x + corridorSize == left;
+            case LEFT:
+            default:
+                return alongY && x == right;
+        }
+    }
+
+    private boolean isFree(int x, int y) {
+        if (x < 0 || y < 0 || x + corridorSize > gridWidth || y + corridorSize > gridHeight) return false;
+
+        int rowLength = gridWidth + 1;
+        int startRow = y * rowLength;
+        int endRow = (y + corridorSize) * rowLength;
+
+        return occupiedSums[endRow + x + corridorSize] - occupiedSums[startRow + x + corridorSize] - occupiedSums[endRow + x] + occupiedSums[startRow + x] == 0;
+    }
+
+    private void computeOccupiedSums() {
+        int rowLength = gridWidth + 1;
+
+        Arrays.fill(occupiedSums, 0, rowLength, 0);
+
+        for (int y = 0; y < gridHeight; y++) {
+            int rowSum = 0;
+            occupiedSums[(y + 1) * rowLength] = 0;
+
+            for (int x = 0; x < gridWidth; x++) {
+                if (occupied[y * gridWidth + x]) rowSum++;
+                occupiedSums[(y + 1) * rowLength + x + 1] = occupiedSums[y * rowLength + x + 1] + rowSum;
+            }
+        }
+
+        occupiedSumsDirty = false;
+    }
+
+    /**
+     * Merge the path into one rectangle per straight segment, a segment starts after the corner shared with the previous one
+     */
+    private Rectangle[] buildCorridor(int goalState, GameRoom source, GameRoom target) {
+        path.clear();
+
+        for (int state = goalState; state != -1; state = parents[state]) {
+            path.add(state);
+        }
+
+        path.reverse();
+
+        Array<Rectangle> segments = new Array<>(Rectangle.class);
+        int last = path.size - 1;
+        int segmentStart = 0;
+
+        if (last == 0) segments.add(createSegment(path.get(0) >> 2, path.get(0) >> 2, true));
+
+        // The direction of a state is the one of the move reaching it
+        for (int i = 1; i <= last; i++) {
+            if (i < last && (path.get(i + 1) & 3) == (path.get(i) & 3)) continue;
+
+            segments.add(createSegment(path.get(segmentStart) >> 2, path.get(i) >> 2, segmentStart == 0));
+            segmentStart = i;
+        }
+
+        addEntrances(path.get(0), source, true);
+        addEntrances(path.get(path.size - 1), target, false);
+
+        return segments.toArray();
+    }
+
+    /**
+     * @param withStart false to leave out the corner position shared with the previous segment
+     */
+    private Rectangle createSegment(int startPosition, int endPosition, boolean withStart) {
+        int startX = startPosition % gridWidth;
+        int startY = startPosition / gridWidth;
+        int endX = endPosition % gridWidth;
+        int endY = endPosition / gridWidth;
+
+        int minX = Math.min(startX, endX);
+        int minY = Math.min(startY, endY);
+        int maxX = Math.max(startX, endX) + corridorSize;
+        int maxY = Math.max(startY, endY) + corridorSize;
+
+        if (!withStart && startPosition != endPosition) {
+            if (endX > startX) minX = startX + corridorSize;
+            else if (endX < startX) maxX = startX;
+            else if (endY > startY) minY = startY + corridorSize;
+            else maxY = startY;
+        }
+
+        return new Rectangle(originX + minX, originY + minY, maxX - minX, maxY - minY);
+    }
+
+    /**
+     * @param leaving true for the source room, left by the first state, false for the target, entered after the last one
+     */
+    private void addEntrances(int state, GameRoom room, boolean leaving) {
+        int position = state >> 2;
+        int direction = state & 3;
+        float x = originX + position % gridWidth;
+        float y = originY + position / gridWidth;
+
+        // Direction going into the room through the entrance
+        int inward = leaving ? (direction + 2) % 4 : direction;
+
+        switch (inward) {
+            case UP:
+                room.addEntrance(x, room.y, x + corridorSize, room.y);
+                break;
+            case DOWN:
+                room.addEntrance(x, room.y + room.height, x + corridorSize, room.y + room.height);
+                break;
+            case RIGHT:
+                room.addEntrance(room.x, y, room.x, y + corridorSize);
+                break;
+            case LEFT:
+            default:
+                room.addEntrance(room.x + room.width, y, room.x + room.width, y + corridorSize);
+                break;
+        }
+    }
+
+    private void pushHeap(long key) {
+        if (heapSize == heap.length) heap = Arrays.copyOf(heap, heapSize * 2);
+
+        int i = heapSize++;
+
+        while (i > 0) {
+            int parent = (i - 1) >> 1;
+            if (heap[parent] <= key) break;
+
+            heap[i] = heap[parent];
+            i = parent;
+        }
+
+        heap[i] = key;
+    }
+
+    /**
+     * @return The state with the lowest estimated total cost
+     */
+    private long popHeap() {
+        long top = heap[0];
+        long last = heap[--heapSize];
+        int i = 0;
+
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= heapSize) break;
+            if (child + 1 < heapSize && heap[child + 1] < heap[child]) child++;
+            if (heap[child] >= last) break;
+
+            heap[i] = heap[child];
+            i = child;
+        }
+
+        if (heapSize > 0) heap[i] = last;
+
+        return top & 0xFFFFFFFFL;
+    }
+}
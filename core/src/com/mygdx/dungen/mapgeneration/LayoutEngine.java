@@ -0,0 +1,23 @@
+package com.mygdx.dungen.mapgeneration;
+
+import com.badlogic.gdx.utils.Array;
+import com.mygdx.dungen.GameCell;
+
+import java.util.SplittableRandom;
+
+/**
+ * Places the generated cells and rooms so that none of them overlap
+ */
+public interface LayoutEngine {
+
+    /**
+     * Move the cells and rooms, sizes are left untouched
+     * @param cells The cells and rooms to lay out
+     */
+    void layout(Array<GameCell> cells) throws MapGenException;
+
+    /**
+     * @param random Source of every random draw of the next layouts, one split of the map seed
+     */
+    void setRandom(SplittableRandom random);
+}
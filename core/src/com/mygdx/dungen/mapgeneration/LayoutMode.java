@@ -0,0 +1,13 @@
+package com.mygdx.dungen.mapgeneration;
+
+/**
+ * Layout engine used to place the cells and rooms
+ */
+public enum LayoutMode {
+    // SeparationLayoutEngine, rooms spread then cells separated, running time depends on the random layout
+    SEPARATION,
+    // BspLayoutEngine, binary space partition of the cells with a corridor wide strip between rooms, O(n log n)
+    BSP,
+    // PackingLayoutEngine, Poisson disk sampled rooms and cells packed around them, O(n log n)
+    PACKING
+}
@@ -1,17 +1,40 @@
 package com.mygdx.dungen.mapgeneration;
 
-import com.badlogic.gdx.Game;
-import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.math.Rectangle;
-import com.badlogic.gdx.math.Vector2;
 import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.IntArray;
 import com.mygdx.dungen.*;
-import com.mygdx.dungen.screen.MapGenDebugScreen;
-import org.jgrapht.graph.Multigraph;
-
-public class MapGenerator implements Runnable {
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Map generation pipeline. Only needs the libGDX utility and math classes, not a running application,
+ * so it runs the same under the game and headless
+ */
+public class MapGenerator {
+
+    // Full generations, each stage also retries from the output of the previous one before giving up on the map
     private static final int                MAX_GEN_TRY                     = 25;
+    // Radius re-rolls of a room whose ratio can't be met
+    private static final int                MAX_ROOM_TRY                    = 10;
+    // Layouts of the same cells, then graphs and corridors over the same layout
+    private static final int                MAX_LAYOUT_TRY                  = 3;
+    private static final int                MAX_CORRIDORS_TRY               = 5;
+    // SPECULATIVE lowers the latency but the map then depends on timing and not only on the seed
+    private static final GenerationMode     GENERATION_MODE                 = GenerationMode.SEQUENTIAL;
+    // Generations raced in SPECULATIVE mode, one per core (a single core runs SEQUENTIAL, racing there only adds latency)
+    private static final int                SPECULATIVE_CANDIDATES          = Runtime.getRuntime().availableProcessors();
+    // Wait for a losing candidate to stop, past it the candidate is left to finish on its own and replaced
+    private static final long               SPECULATIVE_CANCEL_MILLIS       = 1000;
 
     // Threshold used to get the 90th percentile of values we get from normal distribution (0,1)
     private static final float              NORMAL_DISTRIBUTION_THRESHOLD   = 1.65f;
@@ -34,46 +57,104 @@ public class MapGenerator implements Runnable {
     private static final float              MAX_CELL_RATIO                  = 1.75f;
 
     private static final CellOrientation    CELL_ORIENTATION                = CellOrientation.ORIGINAL;
+    private static final LayoutMode         LAYOUT_MODE                     = LayoutMode.SEPARATION;
+    private static final SeparationMode     SEPARATION_MODE                 = SeparationMode.SEQUENTIAL;
+    private static final CellPlacement      CELL_PLACEMENT                  = CellPlacement.SPIRAL;
+    // Random offset of the cells placed in a spiral, so the final layout doesn't look like a grid
+    private static final int                CELL_PLACEMENT_JITTER           = 1;
+    // Budget of each spreading / separation call, going over it throws and triggers another generation
+    // (400 cells usually separate in 450 - 650 iterations)
+    private static final int                MAX_SEPARATION_ITERATIONS       = 2000;
+    private static final long               MAX_SEPARATION_MILLIS           = 5000;
 
     // Since we work with small numbers in normal distribution,
     // this is used to scale normal distribution to game units
     private static final float              RADIUS_MULTIPLIER               = 8.00f;
     // The radius offset added to the base radius of rooms (diagonal)
     public static final float               ROOM_SPREAD_RADIUS_OFFSET       = 3.00f;
+    private static final GraphMode          GRAPH_MODE                      = GraphMode.SPANNING_TREE;
     private static final float              REMAINING_EDGES_MULTIPLIER      = 0.15f;
+    private static final CorridorMode       CORRIDOR_MODE                   = CorridorMode.RANDOM;
 
     private RadiusGenerator radiusGenerator;
     private CellGenerator cellGenerator;
     private OverlappingRectanglesSeparator rectanglesSeparator;
+    private LayoutEngine layoutEngine;
     private GraphGenerator graphGenerator;
     private CorridorGenerator corridorGenerator;
 
+    // Seeds of the maps generated by generateMap(), candidates of a speculative generation get theirs from it too
+    private final SplittableRandom random;
+
+    // Speculative generation, created on first use and kept for the lifetime of the generator
+    private ExecutorService candidateExecutor;
+    private MapGenerator[] candidates;
+    // Held by a candidate while it generates, so it is only reused once it has stopped
+    private ReentrantLock[] candidateLocks;
+
     public MapGenerator() {
+        this(new SplittableRandom().nextLong());
+    }
+
+    /**
+     * @param seed Seed of the sequence of maps generated, the same seed gives the same maps
+     */
+    public MapGenerator(long seed) {
+        random = new SplittableRandom(seed);
         radiusGenerator = new RadiusGenerator();
         cellGenerator = new CellGenerator();
         rectanglesSeparator = new OverlappingRectanglesSeparator();
-        graphGenerator = new GraphGenerator();
-        corridorGenerator = new CorridorGenerator();
+        layoutEngine = createLayoutEngine();
+        graphGenerator = new GraphGenerator(GRAPH_MODE);
+        corridorGenerator = new CorridorGenerator(CORRIDOR_MODE);
     }
 
+    private LayoutEngine createLayoutEngine() {
+        SeparationBudget separationBudget = new SeparationBudget(MAX_SEPARATION_ITERATIONS, MAX_SEPARATION_MILLIS);
+
+        switch (LAYOUT_MODE) {
+            case BSP:
+                return new BspLayoutEngine(ROOM_SPREAD_RADIUS_OFFSET, CorridorGenerator.CORRIDOR_SIZE + 2);
+            case PACKING:
+                return new PackingLayoutEngine(ROOM_SPREAD_RADIUS_OFFSET, separationBudget);
+            case SEPARATION:
+            default:
+                return new SeparationLayoutEngine(SEPARATION_MODE, CELL_PLACEMENT, CELL_PLACEMENT_JITTER, ROOM_SPREAD_RADIUS_OFFSET, separationBudget);
+        }
+    }
+
+    /**
+     * Run the generation stages: radiuses -> cells -> layout -> graph and corridors.
+     * A stage never modifies the output of the previous one, so when it fails it is retried from that output
+     * and only running out of retries starts the map over
+     */
     public GameMap generateMap() throws MapGenException, GameCellException {
+        return generateMap(random.nextLong());
+    }
 
-        // Generating radiuses
-        Array<Radius> radiuses = radiusGenerator.generateRadiuses(DESIRED_CELL_COUNT, MIN_ROOM_COUNT_MULTIPLIER, MAX_ROOM_COUNT_MULTIPLIER, RADIUS_MULTIPLIER, NORMAL_DISTRIBUTION_MEAN, NORMAL_DISTRIBUTION_SD, NORMAL_DISTRIBUTION_THRESHOLD);
-        // Generating cells and rooms from radiuses
-        Array<GameCell> cells = cellGenerator.generateCellsFromRadiuses(radiuses, MIN_CELL_WIDTH, MIN_CELL_HEIGHT, MAX_CELL_WIDTH, MAX_CELL_HEIGHT, MIN_ROOM_WIDTH, MIN_ROOM_HEIGHT, MIN_CELL_RATIO, MAX_CELL_RATIO, CELL_ORIENTATION);
+    /**
+     * @param seed Seed of this map only, see {@link GameMap#seed}
+     */
+    public GameMap generateMap(long seed) throws MapGenException, GameCellException {
+
+        Tracer.info("MapGenerator", "Generating map from seed {}", seed);
 
-        // Spreading rooms
-        rectanglesSeparator.spreadRooms(cells, ROOM_SPREAD_RADIUS_OFFSET);
+        // One stream per stage, so the draws of a stage (and of its retries) don't change what the next stages get
+        SplittableRandom mapRandom = new SplittableRandom(seed);
+        radiusGenerator.setRandom(mapRandom.split());
+        cellGenerator.setRandom(mapRandom.split());
+        layoutEngine.setRandom(mapRandom.split());
+        graphGenerator.setRandom(mapRandom.split());
+        corridorGenerator.setRandom(mapRandom.split());
 
-        // Moving cells to the center of the spread rooms so they can separate homogeneously
-        Vector2 roomsBoundingBoxCenter = new Vector2();
-        Rectangle roomsBoundingBox = rectanglesSeparator.findBoundingBox(GameMap.extractRooms(cells));
-        roomsBoundingBox.getCenter(roomsBoundingBoxCenter);
-        rectanglesSeparator.moveCellsWithOffset(cells, ((int) roomsBoundingBoxCenter.x), ((int) roomsBoundingBoxCenter.y), 1, 1);
+        // Generating radiuses
+        RadiusBatch radiuses = radiusGenerator.generateRadiusBatch(DESIRED_CELL_COUNT, MIN_ROOM_COUNT_MULTIPLIER, MAX_ROOM_COUNT_MULTIPLIER, RADIUS_MULTIPLIER, NORMAL_DISTRIBUTION_MEAN, NORMAL_DISTRIBUTION_SD, NORMAL_DISTRIBUTION_THRESHOLD);
+        // Generating cells and rooms from radiuses
+        Array<GameCell> cells = generateCells(radiuses);
 
-        // Separating cells with rooms fixed
-        rectanglesSeparator.separateOverlappingRectangles(cells, true);
+        // Laying out rooms and cells so none of them overlap
+        ensureNotCancelled();
+        Array<GameCell> layout = layOutCells(cells);
 
         /*
         Array<GameCell> cellsX = new Array<>(cells);
@@ -88,46 +169,236 @@ public class MapGenerator implements Runnable {
         System.out.println(cells);
         */
 
-        // Generating MST + keeping (MSTEdges x REMAINING_EDGES_MULTIPLIER) edges from the triangulation graph
-        Multigraph<GameRoom, NoDuplicateEdge> corridorsGraph = graphGenerator.generateMinimalSpanningTree(cells, REMAINING_EDGES_MULTIPLIER);
+        // Generating the corridors graph and its corridors
+        ensureNotCancelled();
+        return connectRooms(layout, seed);
+    }
+
+    /**
+     * Cells stage, a room whose ratio can't be met gets another radius, the other cells are kept
+     */
+    private Array<GameCell> generateCells(RadiusBatch radiuses) throws MapGenException, GameCellException {
+        return cellGenerator.generateCellsFromRadiuses(radiuses, MIN_CELL_WIDTH, MIN_CELL_HEIGHT, MAX_CELL_WIDTH, MAX_CELL_HEIGHT, MIN_ROOM_WIDTH, MIN_ROOM_HEIGHT, MIN_CELL_RATIO, MAX_CELL_RATIO, CELL_ORIENTATION,
+                MAX_ROOM_TRY, () -> radiusGenerator.generateRoomRadius(RADIUS_MULTIPLIER, NORMAL_DISTRIBUTION_MEAN, NORMAL_DISTRIBUTION_SD, NORMAL_DISTRIBUTION_THRESHOLD));
+    }
 
-        // Generating corridors
-        Array<Rectangle> corridors = corridorGenerator.generateCorridors(cells, corridorsGraph);
+    /**
+     * Layout stage, each try lays out a copy of the cells
+     */
+    private Array<GameCell> layOutCells(Array<GameCell> cells) throws MapGenException {
+        for (int layoutTry = 1; ; layoutTry++) {
+            Array<GameCell> layout = copyCells(cells);
 
-        // Removing cells that don't overlap with corridors
-        cells = corridorGenerator.removeUselessCells(cells, corridors);
+            try {
+                layoutEngine.layout(layout);
+                return layout;
+            } catch (MapGenException exception) {
+                if (layoutTry >= MAX_LAYOUT_TRY || Thread.currentThread().isInterrupted()) throw exception;
 
-        return new GameMap(cells, rectanglesSeparator.findBoundingBox(cells), corridorsGraph, corridors);
+                Tracer.info("MapGenerator", "Layout failed ({}), laying out the same cells again", exception.getMessage());
+            }
+        }
     }
 
-    @Override
-    public void run() {
-        int tryCount = 1;
+    /**
+     * Graph and corridors stage, each try draws another graph (the extra edges are random) and its corridors
+     * over a copy of the layout, since corridors add entrances to the rooms
+     */
+    private GameMap connectRooms(Array<GameCell> layout, long seed) throws MapGenException {
+        for (int corridorsTry = 1; ; corridorsTry++) {
+            Array<GameCell> cells = copyCells(layout);
+
+            try {
+                // Generating MST + keeping (MSTEdges x REMAINING_EDGES_MULTIPLIER) edges from the triangulation graph,
+                // or its Gabriel / relative neighbourhood subgraph depending on GRAPH_MODE
+                RoomGraph corridorsGraph = graphGenerator.generateCorridorsGraph(cells, REMAINING_EDGES_MULTIPLIER);
+
+                // Generating corridors, the edges that can't get one are dropped or replaced by other triangulation edges
+                IntArray drawnEdges = new IntArray();
+                Array<Rectangle> corridors = corridorGenerator.generateCorridors(cells, corridorsGraph, graphGenerator.getTriangulation(), drawnEdges);
+                corridorsGraph = new RoomGraph(corridorsGraph.getRooms(), drawnEdges);
+
+                // Removing cells that don't overlap with corridors
+                cells = corridorGenerator.removeUselessCells(cells, corridors);
+
+                return new GameMap(cells, rectanglesSeparator.findBoundingBox(cells), corridorsGraph, corridors, seed);
+            } catch (MapGenException exception) {
+                if (corridorsTry >= MAX_CORRIDORS_TRY || Thread.currentThread().isInterrupted()) throw exception;
+
+                Tracer.info("MapGenerator", "Corridors failed ({}), drawing another graph over the same layout", exception.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Stop between stages once the thread is interrupted, the separation loops also check it on each pass
+     */
+    private static void ensureNotCancelled() throws MapGenException {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new MapGenException("Map generation cancelled");
+        }
+    }
+
+    private static Array<GameCell> copyCells(Array<GameCell> cells) {
+        Array<GameCell> copies = new Array<>(cells.size);
+
+        for (int i = 0; i < cells.size; i++) {
+            copies.add(cells.get(i).copy());
+        }
+
+        return copies;
+    }
+
+    /**
+     * Generate a map, retrying or racing candidates depending on GENERATION_MODE
+     * @throws RuntimeException If no map could be generated
+     */
+    public GameMap generate() {
+        return generate(GENERATION_MODE);
+    }
+
+    /**
+     * Only SEQUENTIAL gives the same maps for the same MapGenerator seed, the winner of a race depends on timing
+     * @throws RuntimeException If no map could be generated
+     */
+    public GameMap generate(GenerationMode mode) {
+        Tracer.info("MapGenerator", "Generating Game Map");
+
+        boolean speculative = mode == GenerationMode.SPECULATIVE && SPECULATIVE_CANDIDATES > 1;
+        GameMap map = speculative ? generateSpeculatively(SPECULATIVE_CANDIDATES) : generateInTries();
+
+        Tracer.flush();
+
+        return map;
+    }
+
+    /**
+     * Call generateMap until it succeeds
+     * @throws CancellationException If the thread is interrupted
+     */
+    private GameMap generateInTries() {
+        return generateInTries(random);
+    }
 
-        Gdx.app.log("MapGenerator", "Thread started, generating Game Map");
+    /**
+     * @param seeds Source of the seed of each try
+     */
+    private GameMap generateInTries(SplittableRandom seeds) {
+        int tryCount = 1;
         GameMap map;
 
         for (;;) {
             try {
-                map = generateMap();
+                map = generateMap(seeds.nextLong());
                 break;
             } catch (MapGenException | GameCellException exception) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new CancellationException("Map generation cancelled after " + tryCount + (tryCount > 1 ? " tries" : " try"));
+                }
+
                 if (tryCount > MAX_GEN_TRY) {
                     throw new RuntimeException("Could not create a proper map in " + MAX_GEN_TRY + " tries");
                 }
 
-                Gdx.app.log("MapGenerator", "Exception caught (" + exception + "), creating another Map");
+                Tracer.info("MapGenerator", "Exception caught ({}), creating another Map", exception);
 
                 tryCount++;
             }
         }
 
-        Gdx.app.log("MapGenerator", "Map generated in " + tryCount + (tryCount > 1 ? " tries" : " try"));
+        Tracer.info("MapGenerator", "Map generated in {}{} (seed {})", tryCount, tryCount > 1 ? " tries" : " try", map.seed);
 
-        setDebugScreen(map);
+        return map;
     }
 
-    private void setDebugScreen(GameMap map) {
-        Gdx.app.postRunnable(() -> ((Game) Gdx.app.getApplicationListener()).setScreen(new MapGenDebugScreen(map)));
+    /**
+     * Race candidateCount sequential generations, each on its own MapGenerator seeded from this one,
+     * so no generator (nor its scratch state) is shared between threads.
+     * The first map returned wins, the other candidates are interrupted and stop at their next stage, separation pass or corridor.
+     * The executor and the candidates are kept for the next calls, a candidate is only reused once it has stopped
+     */
+    private GameMap generateSpeculatively(int candidateCount) {
+        Tracer.info("MapGenerator", "Racing {} candidate generations", candidateCount);
+
+        ensureCandidates(candidateCount);
+
+        List<Callable<GameMap>> tasks = new ArrayList<>(candidateCount);
+
+        for (int i = 0; i < candidateCount; i++) {
+            MapGenerator candidate = candidates[i];
+            ReentrantLock lock = candidateLocks[i];
+            SplittableRandom seeds = random.split();
+
+            tasks.add(() -> {
+                lock.lock();
+                try {
+                    // A task cancelled once started is interrupted, it must not run after the race was decided
+                    if (Thread.currentThread().isInterrupted()) throw new CancellationException("Candidate cancelled before starting");
+                    return candidate.generateInTries(seeds);
+                } finally {
+                    lock.unlock();
+                }
+            });
+        }
+
+        try {
+            // Cancels the candidates still running once one of them returns
+            return candidateExecutor.invokeAny(tasks);
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Map generation interrupted");
+        } catch (ExecutionException exception) {
+            throw new RuntimeException("Could not create a proper map with " + candidateCount + " candidates", exception.getCause());
+        } finally {
+            awaitCandidates(candidateCount);
+        }
+    }
+
+    private void ensureCandidates(int candidateCount) {
+        if (candidateExecutor == null) {
+            // Cached so a candidate still stopping never delays the next race, idle threads exit after a minute
+            candidateExecutor = Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "MapGenerator candidate");
+                thread.setDaemon(true);
+                return thread;
+            });
+            candidates = new MapGenerator[candidateCount];
+            candidateLocks = new ReentrantLock[candidateCount];
+        }
+
+        for (int i = 0; i < candidateCount; i++) {
+            if (candidates[i] == null) {
+                candidates[i] = new MapGenerator(random.nextLong());
+                candidateLocks[i] = new ReentrantLock();
+            }
+        }
+    }
+
+    /**
+     * Wait up to SPECULATIVE_CANCEL_MILLIS for the interrupted candidates.
+     * A candidate still running past it keeps its generator, a new one takes its place in the next race
+     */
+    private void awaitCandidates(int candidateCount) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(SPECULATIVE_CANCEL_MILLIS);
+        boolean interrupted = false;
+
+        for (int i = 0; i < candidateCount; i++) {
+            boolean stopped = false;
+
+            try {
+                stopped = candidateLocks[i].tryLock(Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+            } catch (InterruptedException exception) {
+                interrupted = true;
+            }
+
+            if (stopped) {
+                candidateLocks[i].unlock();
+            } else {
+                Tracer.error("MapGenerator", "Candidate {} still running {} ms after the race, replacing it", i, SPECULATIVE_CANCEL_MILLIS);
+                candidates[i] = null;
+            }
+        }
+
+        if (interrupted) Thread.currentThread().interrupt();
     }
 }
@@ -2,6 +2,8 @@ package com.mygdx.dungen.mapgeneration;
 
 import org.jgrapht.graph.DefaultEdge;
 
+import java.util.Objects;
+
 /**
  * @author leonard
  *         Date: 6/3/2016
@@ -26,4 +28,10 @@ public class NoDuplicateEdge extends DefaultEdge {
 
         return (thisEdgeSource.equals(otherEdgeSource) && thisEdgeTarget.equals(otherEdgeTarget)) || (thisEdgeSource.equals(otherEdgeTarget) && thisEdgeTarget.equals(otherEdgeSource));
     }
+
+    @Override
+    public int hashCode() {
+        // Symmetric like equals, so an edge and its reverse hash the same
+        return Objects.hashCode(getSource()) + Objects.hashCode(getTarget());
+    }
 }
@@ -1,13 +1,13 @@
 package com.mygdx.dungen.mapgeneration;
 
-import com.badlogic.gdx.Gdx;
-import com.badlogic.gdx.math.Circle;
 import com.badlogic.gdx.math.Rectangle;
 import com.badlogic.gdx.math.Vector2;
 import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.IntArray;
 import com.mygdx.dungen.GameCell;
 import com.mygdx.dungen.GameRoom;
-import org.apache.commons.math3.random.RandomDataGenerator;
+
+import java.util.SplittableRandom;
 
 /**
  * @author leonard
@@ -17,12 +17,19 @@ public class OverlappingRectanglesSeparator {
 
     private static final float REPEL_DECAY_COEFFICIENT = 1.0f;
 
-    public OverlappingRectanglesSeparator() {}
+    private SeparationBudget budget;
+    private SeparationListener listener;
+    private SplittableRandom random;
+
+    public OverlappingRectanglesSeparator() {
+        budget = SeparationBudget.UNLIMITED;
+        random = new SplittableRandom();
+    }
 
     public Rectangle findBoundingBox(Array<? extends Rectangle> rectangles) {
 
         int rectangleCount = rectangles.size;
-        Gdx.app.log("RectanglesSeparator", "Finding bouncing box of " + rectangleCount + " rectangles");
+        Tracer.debug("RectanglesSeparator", "Finding bouncing box of {} rectangles", rectangleCount);
 
         float maxX = 0;
         float maxY = 0;
@@ -52,19 +59,27 @@ public class OverlappingRectanglesSeparator {
 
         Rectangle rectangle = new Rectangle(minX, minY, maxX - minX, maxY - minY);
 
-        Gdx.app.log("RectanglesSeparator", "Bounding box: " + rectangle.toString());
+        Tracer.debug("RectanglesSeparator", "Bounding box: {}", rectangle);
 
         return rectangle;
     }
 
-    public void separateOverlappingRectangles(Array<? extends Rectangle> rectangles, boolean roomsAreFixed) {
+    public void separateOverlappingRectangles(Array<? extends Rectangle> rectangles, boolean roomsAreFixed) throws MapGenException {
         int rectangleCount = rectangles.size;
         boolean separated = false;
+        long startTime = System.nanoTime();
+        int iteration = 0;
 
-        Gdx.app.log("RectanglesSeparator", "Separating " + rectangleCount + " rectangles");
+        Tracer.info("RectanglesSeparator", "Separating {} rectangles", rectangleCount);
+
+        // Broad phase: each rectangle only gets tested against the ones sharing a bucket with it
+        SpatialHashGrid grid = createGrid(rectangles);
+        IntArray neighbours = new IntArray();
 
         while (!separated) {
             separated = true;
+            int overlapCount = 0;
+            float maxDisplacement = 0f;
 
             for (int i = 0; i < rectangleCount; i++) {
                 Rectangle rect = rectangles.get(i);
@@ -75,8 +90,10 @@ public class OverlappingRectanglesSeparator {
                 Vector2 center = new Vector2();
                 rect.getCenter(center);
 
-                for (int j = 0; j < rectangleCount; j++) {
-                    Rectangle otherRect = rectangles.get(j);
+                grid.query(rect.x, rect.y, rect.width, rect.height, neighbours);
+
+                for (int n = 0; n < neighbours.size; n++) {
+                    Rectangle otherRect = rectangles.get(neighbours.get(n));
 
                     if (rect == otherRect) continue;
                     if (!rect.overlaps(otherRect)) continue;
@@ -90,65 +107,171 @@ public class OverlappingRectanglesSeparator {
 
                 if (velocity.len2() > 0f) {
                     separated = false;
+                    overlapCount++;
 
+                    float previousX = rect.x;
+                    float previousY = rect.y;
                     setCellPositionFromVelocity((GameCell) rect, velocity);
+                    grid.update(i, rect.x, rect.y, rect.width, rect.height);
+
+                    maxDisplacement = Math.max(maxDisplacement, Vector2.len(rect.x - previousX, rect.y - previousY));
                 }
             }
+
+            iteration++;
+            reportIteration("Separation", iteration, overlapCount, maxDisplacement);
+
+            if (!separated) budget.ensureWithinBudget("Separation", iteration, startTime, overlapCount);
+        }
+
+        Tracer.info("RectanglesSeparator", "Rectangles separated in {} iterations", iteration);
+    }
+
+    private SpatialHashGrid createGrid(Array<? extends Rectangle> rectangles) {
+        int rectangleCount = rectangles.size;
+        float sizeSum = 0f;
+
+        for (int i = 0; i < rectangleCount; i++) {
+            Rectangle rect = rectangles.get(i);
+            sizeSum += Math.max(rect.width, rect.height);
+        }
+
+        // Buckets the size of an average rectangle keep both the bucket count per rectangle and the bucket population low
+        float bucketSize = rectangleCount > 0 ? Math.max(sizeSum / rectangleCount, 1f) : 1f;
+        SpatialHashGrid grid = new SpatialHashGrid(bucketSize, rectangleCount);
+
+        for (int i = 0; i < rectangleCount; i++) {
+            Rectangle rect = rectangles.get(i);
+            grid.insert(i, rect.x, rect.y, rect.width, rect.height);
         }
+
+        return grid;
     }
 
-    public void spreadRooms (Array<? extends Rectangle> rectangles, float radius) {
+    public void spreadRooms (Array<? extends Rectangle> rectangles, float radius) throws MapGenException {
         int rectangleCount = rectangles.size;
         boolean spread = false;
+        long startTime = System.nanoTime();
+        int iteration = 0;
+
+        Tracer.info("RectanglesSeparator", "Spreading rooms within {} cells", rectangleCount);
+
+        Array<GameRoom> rooms = new Array<>(rectangleCount);
+        for (int i = 0; i < rectangleCount; i++) {
+            Rectangle cell = rectangles.get(i);
+            if (cell instanceof GameRoom) rooms.add((GameRoom) cell);
+        }
 
-        Gdx.app.log("RectanglesSeparator", "Spreading rooms within " + rectangleCount + " cells");
+        int roomCount = rooms.size;
+
+        // Rooms are only moved, so their circle radius never changes
+        float[] circleRadiuses = new float[roomCount];
+        for (int i = 0; i < roomCount; i++) {
+            GameRoom room = rooms.get(i);
+            circleRadiuses[i] = new Vector2(room.width / 2, room.height / 2).len() + radius;
+        }
+
+        // Broad phase: only rooms whose circles intersect on x are compared
+        SweepAndPrune sweepAndPrune = new SweepAndPrune(roomCount);
+        IntArray pairs = new IntArray();
+        IntArray[] candidates = new IntArray[roomCount];
+        for (int i = 0; i < roomCount; i++) {
+            candidates[i] = new IntArray();
+        }
+
+        Vector2 velocity = new Vector2();
+        Vector2 diff = new Vector2();
 
         while (!spread) {
             spread = true;
+            int overlapCount = 0;
+            float maxDisplacement = 0f;
 
-            for (int i = 0; i < rectangleCount; i++) {
-                Rectangle cell = rectangles.get(i);
+            for (int i = 0; i < roomCount; i++) {
+                GameRoom room = rooms.get(i);
+                float centerX = room.x + room.width / 2;
 
-                if (!(cell instanceof GameRoom)) continue;
+                sweepAndPrune.setInterval(i, centerX - circleRadiuses[i], centerX + circleRadiuses[i]);
+                candidates[i].clear();
+            }
 
-                Vector2 velocity = new Vector2();
-                Vector2 center = new Vector2();
-                cell.getCenter(center);
+            sweepAndPrune.sort();
+            sweepAndPrune.findOverlappingPairs(pairs);
 
-                float cellRadius = new Vector2(center.x - cell.x, center.y - cell.y).len();
-                Circle cellCircle = new Circle(center.x, center.y, cellRadius + radius);
+            for (int p = 0; p < pairs.size; p += 2) {
+                int room1 = pairs.get(p);
+                int room2 = pairs.get(p + 1);
 
-                for (int j = 0; j < rectangleCount; j++) {
-                    Rectangle otherCell = rectangles.get(j);
+                candidates[room1].add(room2);
+                candidates[room2].add(room1);
+            }
 
-                    if (cell == otherCell) continue;
-                    if (!(otherCell instanceof GameRoom)) continue;
+            for (int i = 0; i < roomCount; i++) {
+                GameRoom room = rooms.get(i);
+                IntArray roomCandidates = candidates[i];
 
-                    Vector2 otherCellCenter = new Vector2();
-                    otherCell.getCenter(otherCellCenter);
+                velocity.setZero();
+                float centerX = room.x + room.width / 2;
+                float centerY = room.y + room.height / 2;
 
-                    float otherCellRadius = new Vector2(otherCellCenter.x - otherCell.x, otherCellCenter.y - otherCell.y).len();
-                    Circle otherCellCircle = new Circle(otherCellCenter.x, otherCellCenter.y, otherCellRadius + radius);
+                for (int c = 0; c < roomCandidates.size; c++) {
+                    int j = roomCandidates.get(c);
+                    GameRoom otherRoom = rooms.get(j);
 
-                    if (!cellCircle.overlaps(otherCellCircle)) continue;
+                    float otherCenterX = otherRoom.x + otherRoom.width / 2;
+                    float otherCenterY = otherRoom.y + otherRoom.height / 2;
 
-                    Vector2 diff = new Vector2(center.x - otherCellCenter.x, center.y - otherCellCenter.y);
+                    // Same test as Circle.overlaps
+                    diff.set(centerX - otherCenterX, centerY - otherCenterY);
+                    float radiusSum = circleRadiuses[i] + circleRadiuses[j];
+                    if (diff.len2() >= radiusSum * radiusSum) continue;
 
                     applyDiffToVelocity(diff, velocity);
                 }
 
                 if (velocity.len2() > 0f) {
                     spread = false;
+                    overlapCount++;
 
-                    setCellPositionFromVelocity((GameRoom) cell, velocity);
+                    float previousX = room.x;
+                    float previousY = room.y;
+                    setCellPositionFromVelocity(room, velocity);
+
+                    maxDisplacement = Math.max(maxDisplacement, Vector2.len(room.x - previousX, room.y - previousY));
                 }
             }
+
+            iteration++;
+            reportIteration("Spreading", iteration, overlapCount, maxDisplacement);
+
+            if (!spread) budget.ensureWithinBudget("Spreading", iteration, startTime, overlapCount);
         }
+
+        Tracer.info("RectanglesSeparator", "Rooms spread in {} iterations", iteration);
     }
 
-    private void setCellPositionFromVelocity(GameCell cell, Vector2 velocity) {
-        RandomDataGenerator randomDataGenerator = new RandomDataGenerator();
+    private void reportIteration(String stage, int iteration, int overlapCount, float maxDisplacement) {
+        if (Tracer.isDebugEnabled()) Tracer.debug("RectanglesSeparator", "{} iteration {}: {} overlapping, max displacement {}", stage, iteration, overlapCount, maxDisplacement);
+
+        if (listener != null) listener.onIteration(stage, iteration, overlapCount, maxDisplacement);
+    }
 
+    public void setBudget(SeparationBudget budget) {
+        this.budget = budget;
+    }
+
+    public void setListener(SeparationListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @param random Source of every random draw of this separator, one split of the map seed
+     */
+    public void setRandom(SplittableRandom random) {
+        this.random = random;
+    }
+
+    private void setCellPositionFromVelocity(GameCell cell, Vector2 velocity) {
         velocity.nor();
 
         Vector2 cellPosition = new Vector2();
@@ -157,8 +280,8 @@ public class OverlappingRectanglesSeparator {
 
         int cellX = Math.round(cellPosition.x);
         int cellY = Math.round(cellPosition.y);
-        int x = randomDataGenerator.nextInt(cellX - 1, cellX + 1);
-        int y = randomDataGenerator.nextInt(cellY - 1, cellY + 1);
+        int x = random.nextInt(cellX - 1, cellX + 2);
+        int y = random.nextInt(cellY - 1, cellY + 2);
 
         cell.setPosition(x, y);
     }
@@ -180,17 +303,17 @@ public class OverlappingRectanglesSeparator {
         int height;
 
         int nearestSquareRoot = (int) Math.ceil(Math.sqrt(roomCount));
-        Gdx.app.log("RectanglesSeparator", "Nearest upper square root is " + nearestSquareRoot);
+        Tracer.info("RectanglesSeparator", "Nearest upper square root is {}", nearestSquareRoot);
 
         width = nearestSquareRoot;
         height = (nearestSquareRoot * (nearestSquareRoot - 1) >= roomCount ? nearestSquareRoot - 1 : nearestSquareRoot);
 
-        Gdx.app.log("RectanglesSeparator", "Nearest (W x H) Grid is (" + width + " x " + height + ")");
+        Tracer.info("RectanglesSeparator", "Nearest (W x H) Grid is ({} x {})", width, height);
         return new int[] {width, height};
     }
 
     public void moveRooms(Array<? extends Rectangle> rectangles, int x, int y) {
-        Gdx.app.log("RectanglesSeparator", "Moving Rooms to (" + x + ", " + y + ")");
+        Tracer.info("RectanglesSeparator", "Moving Rooms to ({}, {})", x, y);
 
         for (Rectangle cell : rectangles) {
             if (cell instanceof GameRoom) {
@@ -200,20 +323,112 @@ public class OverlappingRectanglesSeparator {
     }
 
     public void moveCellsWithOffset(Array<? extends Rectangle> cells, int x, int y, int offsetX, int offsetY) {
-        Gdx.app.log("RectanglesSeparator", "Moving cells to (" + x + ", " + y + ")");
-
-        RandomDataGenerator randomDataGenerator = new RandomDataGenerator();
+        Tracer.info("RectanglesSeparator", "Moving cells to ({}, {})", x, y);
 
         for (Rectangle cell : cells) {
             if (!(cell instanceof GameRoom)) {
                 // X/Y +- 1 so they are not stacked at the exact same spot and can't separate
-                int newX = randomDataGenerator.nextInt(x - offsetX, x + offsetX);
-                int newY = randomDataGenerator.nextInt(y - offsetY, y + offsetY);
+                int newX = random.nextInt(x - offsetX, x + offsetX + 1);
+                int newY = random.nextInt(y - offsetY, y + offsetY + 1);
                 cell.setCenter(new Vector2(newX, newY));
             }
         }
     }
 
+    /**
+     * Place every cell that is not a room on a square spiral of slots around (x, y), skipping the slots taken by rooms.
+     * Slots are as big as the biggest cell, so the spiral only grows as much as the total cell area needs and
+     * cells start next to their final position instead of stacked on each other
+     * @param cells The cells and rooms, rooms are not moved
+     * @param x X of the spiral center
+     * @param y Y of the spiral center
+     * @param jitter Maximum random offset added to the slot position, on both axis
+     */
+    public void placeCellsInSpiral(Array<? extends Rectangle> cells, int x, int y, int jitter) {
+        Tracer.info("RectanglesSeparator", "Placing cells in a spiral around ({}, {})", x, y);
+
+        int cellCount = cells.size;
+        int slotWidth = 1;
+        int slotHeight = 1;
+        Array<Rectangle> rooms = new Array<>();
+
+        for (int i = 0; i < cellCount; i++) {
+            Rectangle cell = cells.get(i);
+
+            if (cell instanceof GameRoom) {
+                rooms.add(cell);
+            } else {
+                slotWidth = Math.max(slotWidth, (int) Math.ceil(cell.width));
+                slotHeight = Math.max(slotHeight, (int) Math.ceil(cell.height));
+            }
+        }
+
+        SpatialHashGrid roomGrid = createGrid(rooms);
+        IntArray overlappingRooms = new IntArray();
+        Rectangle slot = new Rectangle(0, 0, slotWidth, slotHeight);
+
+        int ring = 0;
+        int ringPosition = 0;
+
+        for (int i = 0; i < cellCount; i++) {
+            Rectangle cell = cells.get(i);
+
+            if (cell instanceof GameRoom) continue;
+
+            // Walking the spiral until a slot free of rooms is found
+            boolean slotFound = false;
+
+            while (!slotFound) {
+                int[] slotCoordinates = getSpiralCoordinates(ring, ringPosition);
+                ringPosition++;
+
+                if (ringPosition >= Math.max(1, 8 * ring)) {
+                    ring++;
+                    ringPosition = 0;
+                }
+
+                slot.setPosition(x + slotCoordinates[0] * slotWidth - slotWidth / 2, y + slotCoordinates[1] * slotHeight - slotHeight / 2);
+                roomGrid.query(slot.x, slot.y, slot.width, slot.height, overlappingRooms);
+
+                slotFound = true;
+                for (int r = 0; r < overlappingRooms.size; r++) {
+                    if (slot.overlaps(rooms.get(overlappingRooms.get(r)))) {
+                        slotFound = false;
+                        break;
+                    }
+                }
+            }
+
+            int offsetX = jitter > 0 ? random.nextInt(-jitter, jitter + 1) : 0;
+            int offsetY = jitter > 0 ? random.nextInt(-jitter, jitter + 1) : 0;
+
+            cell.setPosition(Math.round(slot.x + (slotWidth - cell.width) / 2) + offsetX, Math.round(slot.y + (slotHeight - cell.height) / 2) + offsetY);
+        }
+    }
+
+    /**
+     * @param ring Ring of the spiral, the ring n being the border of a (2n + 1) x (2n + 1) square
+     * @param position Position in the ring, from 0 to 8n - 1, counterclockwise from the bottom right corner
+     * @return The slot coordinates relative to the spiral center
+     */
+    private int[] getSpiralCoordinates(int ring, int position) {
+        if (ring == 0) return new int[] {0, 0};
+
+        int side = 2 * ring;
+        int offset = position % side;
+
+        switch (position / side) {
+            case 0:
+                return new int[] {ring, -ring + 1 + offset};
+            case 1:
+                return new int[] {ring - 1 - offset, ring};
+            case 2:
+                return new int[] {-ring, ring - 1 - offset};
+            default:
+                return new int[] {-ring + 1 + offset, -ring};
+        }
+    }
+
     public int[] computeAverageStats(Array<GameCell> rectangles) {
         int averageWidth = 0;
         int averageHeight = 0;
@@ -231,7 +446,7 @@ public class OverlappingRectanglesSeparator {
         return new int[] {averageWidth, averageHeight};
     }
 
-    public void stackSeparatedRectangles(Array<GameCell> rectangles) {
+    public void stackSeparatedRectangles(Array<GameCell> rectangles) throws MapGenException {
         int[] averages = computeAverageStats(rectangles);
 
         System.out.println("Average width: " + averages[0] + ", height: " + averages[1]);
@@ -254,7 +469,7 @@ public class OverlappingRectanglesSeparator {
     public Array<GameCell> findOverlappingRectangles(Array<GameCell> rectangles, GameCell rectangle) {
         int rectangleCount = rectangles.size;
 
-        Gdx.app.log("RectanglesSeparator", "Finding overlapping rectangles. COUNT: " + rectangleCount);
+        Tracer.debug("RectanglesSeparator", "Finding overlapping rectangles. COUNT: {}", rectangleCount);
 
         Array<GameCell> overlappingRectangles = new Array<GameCell>(rectangleCount);
 
@@ -267,7 +482,7 @@ public class OverlappingRectanglesSeparator {
         }
 
         overlappingRectangles.shrink();
-        Gdx.app.log("RectanglesSeparator", overlappingRectangles.size + " were overlapping the given rectangle");
+        Tracer.debug("RectanglesSeparator", "{} were overlapping the given rectangle", overlappingRectangles.size);
 
         return overlappingRectangles;
     }
@@ -0,0 +1,442 @@
+package com.mygdx.dungen.mapgeneration;
+
+import com.badlogic.gdx.math.Rectangle;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.IntArray;
+import com.mygdx.dungen.GameRoom;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Same relaxation as {@link OverlappingRectanglesSeparator} but working on primitive arrays.
+ * Positions and sizes are copied once, the whole relaxation runs without allocating
+ * and the results are written back to the rectangles at the end.
+ */
+public class PackedRectanglesSeparator {
+
+    private static final float REPEL_DECAY_COEFFICIENT = 1.0f;
+
+    // Below this many rectangles a velocity task is not split anymore
+    private static final int PARALLEL_THRESHOLD = 256;
+
+    private SplittableRandom random;
+    private final ForkJoinPool pool;
+
+    private SeparationBudget budget;
+    private SeparationListener listener;
+
+    private float[] x;
+    private float[] y;
+    private float[] width;
+    private float[] height;
+    private float[] velocityX;
+    private float[] velocityY;
+    private boolean[] isRoom;
+    // Index in the given array of the rectangle stored at each position
+    private int[] rectangleIndices;
+    private int count;
+
+    private final IntArray neighbours;
+    // Neighbour buffer of each pool worker running a VelocityTask, kept across passes
+    private final ThreadLocal<IntArray> workerNeighbours;
+    private final IntArray pairs;
+    private int[] candidateOffsets;
+    private int[] candidateCursors;
+    private int[] candidates;
+
+    public PackedRectanglesSeparator() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param pool Pool running the velocity computations of {@link #separateOverlappingRectanglesParallel(Array, boolean)}
+     */
+    public PackedRectanglesSeparator(ForkJoinPool pool) {
+        this.pool = pool;
+        budget = SeparationBudget.UNLIMITED;
+        random = new SplittableRandom();
+        neighbours = new IntArray();
+        workerNeighbours = ThreadLocal.withInitial(IntArray::new);
+        pairs = new IntArray();
+        ensureCapacity(16);
+        candidates = new int[16];
+    }
+
+    public void separateOverlappingRectangles(Array<? extends Rectangle> rectangles, boolean roomsAreFixed) throws MapGenException {
+        Tracer.info("PackedSeparator", "Separating {} rectangles", rectangles.size);
+
+        load(rectangles);
+
+        SpatialHashGrid grid = createGrid();
+        boolean separated = false;
+        long startTime = System.nanoTime();
+        int iteration = 0;
+
+        while (!separated) {
+            separated = true;
+            int overlapCount = 0;
+            float maxDisplacement = 0f;
+
+            for (int i = 0; i < count; i++) {
+                if (roomsAreFixed && isRoom[i]) continue;
+
+                computeVelocity(grid, i, neighbours);
+
+                if (velocityX[i] * velocityX[i] + velocityY[i] * velocityY[i] > 0f) {
+                    separated = false;
+                    overlapCount++;
+
+                    maxDisplacement = Math.max(maxDisplacement, move(i, velocityX[i], velocityY[i]));
+                    grid.update(i, x[i], y[i], width[i], height[i]);
+                }
+            }
+
+            iteration++;
+            reportIteration("Separation", iteration, overlapCount, maxDisplacement);
+
+            if (!separated) budget.ensureWithinBudget("Separation", iteration, startTime, overlapCount);
+        }
+
+        Tracer.info("PackedSeparator", "Rectangles separated in {} iterations", iteration);
+
+        store(rectangles);
+    }
+
+    /**
+     * Jacobi version of {@link #separateOverlappingRectangles(Array, boolean)}: every velocity of a pass is computed
+     * in parallel from the positions of the previous pass, then all the moves are applied.
+     */
+    public void separateOverlappingRectanglesParallel(Array<? extends Rectangle> rectangles, boolean roomsAreFixed) throws MapGenException {
+        Tracer.info("PackedSeparator", "Separating {} rectangles on {} threads", rectangles.size, pool.getParallelism());
+
+        load(rectangles);
+
+        SpatialHashGrid grid = createGrid();
+        boolean separated = false;
+        long startTime = System.nanoTime();
+        int iteration = 0;
+
+        while (!separated) {
+            separated = true;
+            int overlapCount = 0;
+            float maxDisplacement = 0f;
+
+            // Positions and grid are only read while computing velocities
+            pool.invoke(new VelocityTask(grid, roomsAreFixed, 0, count));
+
+            for (int i = 0; i < count; i++) {
+                if (velocityX[i] * velocityX[i] + velocityY[i] * velocityY[i] > 0f) {
+                    separated = false;
+                    overlapCount++;
+
+                    maxDisplacement = Math.max(maxDisplacement, move(i, velocityX[i], velocityY[i]));
+                    grid.update(i, x[i], y[i], width[i], height[i]);
+                }
+            }
+
+            iteration++;
+            reportIteration("Separation", iteration, overlapCount, maxDisplacement);
+
+            if (!separated) budget.ensureWithinBudget("Separation", iteration, startTime, overlapCount);
+        }
+
+        Tracer.info("PackedSeparator", "Rectangles separated in {} iterations", iteration);
+
+        store(rectangles);
+    }
+
+    private void computeVelocity(SpatialHashGrid grid, int i, IntArray neighbours) {
+        float centerX = x[i] + width[i] / 2;
+        float centerY = y[i] + height[i] / 2;
+        float cellVelocityX = 0f;
+        float cellVelocityY = 0f;
+
+        grid.query(x[i], y[i], width[i], height[i], neighbours);
+
+        for (int n = 0; n < neighbours.size; n++) {
+            int j = neighbours.get(n);
+
+            if (i == j || !overlaps(i, j)) continue;
+
+            float diffX = centerX - (x[j] + width[j] / 2);
+            float diffY = centerY - (y[j] + height[j] / 2);
+            float diffLen2 = diffX * diffX + diffY * diffY;
+
+            if (diffLen2 > 0f) {
+                // Normalized diff scaled by REPEL_DECAY_COEFFICIENT / length
+                float scale = REPEL_DECAY_COEFFICIENT / diffLen2;
+                cellVelocityX += diffX * scale;
+                cellVelocityY += diffY * scale;
+            } else {
+                // Same center, the lowest index goes left so both don't stay stuck on each other
+                cellVelocityX += i < j ? -REPEL_DECAY_COEFFICIENT : REPEL_DECAY_COEFFICIENT;
+            }
+        }
+
+        velocityX[i] = cellVelocityX;
+        velocityY[i] = cellVelocityY;
+    }
+
+    public void spreadRooms(Array<? extends Rectangle> rectangles, float radius) throws MapGenException {
+        Tracer.info("PackedSeparator", "Spreading rooms within {} cells", rectangles.size);
+
+        load(rectangles);
+
+        // Rooms are packed first so the sweep only works on them
+        int roomCount = 0;
+        for (int i = 0; i < count; i++) {
+            if (isRoom[i]) swap(i, roomCount++);
+        }
+
+        float[] circleRadiuses = new float[roomCount];
+        for (int i = 0; i < roomCount; i++) {
+            circleRadiuses[i] = (float) Math.sqrt(width[i] * width[i] / 4 + height[i] * height[i] / 4) + radius;
+        }
+
+        SweepAndPrune sweepAndPrune = new SweepAndPrune(roomCount);
+        if (candidateOffsets == null || candidateOffsets.length < roomCount + 1) {
+            candidateOffsets = new int[roomCount + 1];
+            candidateCursors = new int[roomCount];
+        }
+
+        boolean spread = false;
+        long startTime = System.nanoTime();
+        int iteration = 0;
+
+        while (!spread) {
+            spread = true;
+            int overlapCount = 0;
+            float maxDisplacement = 0f;
+
+            for (int i = 0; i < roomCount; i++) {
+                float centerX = x[i] + width[i] / 2;
+                sweepAndPrune.setInterval(i, centerX - circleRadiuses[i], centerX + circleRadiuses[i]);
+            }
+
+            sweepAndPrune.sort();
+            sweepAndPrune.findOverlappingPairs(pairs);
+            buildCandidates(roomCount);
+
+            for (int i = 0; i < roomCount; i++) {
+                float centerX = x[i] + width[i] / 2;
+                float centerY = y[i] + height[i] / 2;
+                float roomVelocityX = 0f;
+                float roomVelocityY = 0f;
+
+                for (int c = candidateOffsets[i]; c < candidateOffsets[i + 1]; c++) {
+                    int j = candidates[c];
+
+                    float diffX = centerX - (x[j] + width[j] / 2);
+                    float diffY = centerY - (y[j] + height[j] / 2);
+                    float len2 = diffX * diffX + diffY * diffY;
+                    float radiusSum = circleRadiuses[i] + circleRadiuses[j];
+
+                    if (len2 >= radiusSum * radiusSum || len2 <= 0f) continue;
+
+                    float scale = REPEL_DECAY_COEFFICIENT / len2;
+                    roomVelocityX += diffX * scale;
+                    roomVelocityY += diffY * scale;
+                }
+
+                if (roomVelocityX * roomVelocityX + roomVelocityY * roomVelocityY > 0f) {
+                    spread = false;
+                    overlapCount++;
+
+                    maxDisplacement = Math.max(maxDisplacement, move(i, roomVelocityX, roomVelocityY));
+                }
+            }
+
+            iteration++;
+            reportIteration("Spreading", iteration, overlapCount, maxDisplacement);
+
+            if (!spread) budget.ensureWithinBudget("Spreading", iteration, startTime, overlapCount);
+        }
+
+        Tracer.info("PackedSeparator", "Rooms spread in {} iterations", iteration);
+
+        store(rectangles);
+    }
+
+    public void setBudget(SeparationBudget budget) {
+        this.budget = budget;
+    }
+
+    public void setListener(SeparationListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @param random Source of every random draw of this separator, one split of the map seed
+     */
+    public void setRandom(SplittableRandom random) {
+        this.random = random;
+    }
+
+    private void reportIteration(String stage, int iteration, int overlapCount, float maxDisplacement) {
+        if (Tracer.isDebugEnabled()) Tracer.debug("PackedSeparator", "{} iteration {}: {} overlapping, max displacement {}", stage, iteration, overlapCount, maxDisplacement);
+
+        if (listener != null) listener.onIteration(stage, iteration, overlapCount, maxDisplacement);
+    }
+
+    /**
+     * Copy the rectangles into the arrays, {@link #store(Array)} uses rectangleIndices to write them back
+     */
+    private void load(Array<? extends Rectangle> rectangles) {
+        count = rectangles.size;
+        ensureCapacity(count);
+
+        for (int i = 0; i < count; i++) {
+            Rectangle rect = rectangles.get(i);
+
+            x[i] = rect.x;
+            y[i] = rect.y;
+            width[i] = rect.width;
+            height[i] = rect.height;
+            isRoom[i] = rect instanceof GameRoom;
+            rectangleIndices[i] = i;
+        }
+    }
+
+    private void store(Array<? extends Rectangle> rectangles) {
+        for (int i = 0; i < count; i++) {
+            rectangles.get(rectangleIndices[i]).setPosition(x[i], y[i]);
+        }
+    }
+
+    private void swap(int i, int j) {
+        if (i == j) return;
+
+        float tmp;
+        tmp = x[i]; x[i] = x[j]; x[j] = tmp;
+        tmp = y[i]; y[i] = y[j]; y[j] = tmp;
+        tmp = width[i]; width[i] = width[j]; width[j] = tmp;
+        tmp = height[i]; height[i] = height[j]; height[j] = tmp;
+
+        boolean tmpRoom = isRoom[i]; isRoom[i] = isRoom[j]; isRoom[j] = tmpRoom;
+        int tmpIndex = rectangleIndices[i]; rectangleIndices[i] = rectangleIndices[j]; rectangleIndices[j] = tmpIndex;
+    }
+
+    /**
+     * Turn the pair list into per room candidate ranges (compressed rows)
+     */
+    private void buildCandidates(int roomCount) {
+        int pairValues = pairs.size;
+
+        for (int i = 0; i <= roomCount; i++) {
+            candidateOffsets[i] = 0;
+        }
+
+        for (int p = 0; p < pairValues; p++) {
+            candidateOffsets[pairs.get(p) + 1]++;
+        }
+
+        for (int i = 0; i < roomCount; i++) {
+            candidateOffsets[i + 1] += candidateOffsets[i];
+            candidateCursors[i] = candidateOffsets[i];
+        }
+
+        if (candidates.length < pairValues) candidates = new int[Math.max(pairValues, candidates.length * 2)];
+
+        for (int p = 0; p < pairValues; p += 2) {
+            int room1 = pairs.get(p);
+            int room2 = pairs.get(p + 1);
+
+            candidates[candidateCursors[room1]++] = room2;
+            candidates[candidateCursors[room2]++] = room1;
+        }
+    }
+
+    private boolean overlaps(int i, int j) {
+        return x[i] < x[j] + width[j] && x[i] + width[i] > x[j] && y[i] < y[j] + height[j] && y[i] + height[i] > y[j];
+    }
+
+    /**
+     * Move of one unit along the velocity, snapped to the grid and randomized by +- 1 like
+     * {@link OverlappingRectanglesSeparator} does
+     * @return The distance the rectangle moved
+     */
+    private float move(int i, float directionX, float directionY) {
+        float directionLen = (float) Math.sqrt(directionX * directionX + directionY * directionY);
+
+        int cellX = Math.round(x[i] + directionX / directionLen);
+        int cellY = Math.round(y[i] + directionY / directionLen);
+
+        float previousX = x[i];
+        float previousY = y[i];
+
+        x[i] = cellX - 1 + random.nextInt(3);
+        y[i] = cellY - 1 + random.nextInt(3);
+
+        return (float) Math.sqrt((x[i] - previousX) * (x[i] - previousX) + (y[i] - previousY) * (y[i] - previousY));
+    }
+
+    private SpatialHashGrid createGrid() {
+        float sizeSum = 0f;
+
+        for (int i = 0; i < count; i++) {
+            sizeSum += Math.max(width[i], height[i]);
+        }
+
+        float bucketSize = count > 0 ? Math.max(sizeSum / count, 1f) : 1f;
+        SpatialHashGrid grid = new SpatialHashGrid(bucketSize, count);
+
+        for (int i = 0; i < count; i++) {
+            grid.insert(i, x[i], y[i], width[i], height[i]);
+        }
+
+        return grid;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (x != null && x.length >= capacity) return;
+
+        x = new float[capacity];
+        y = new float[capacity];
+        width = new float[capacity];
+        height = new float[capacity];
+        velocityX = new float[capacity];
+        velocityY = new float[capacity];
+        isRoom = new boolean[capacity];
+        rectangleIndices = new int[capacity];
+    }
+
+    private class VelocityTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final SpatialHashGrid grid;
+        private final boolean roomsAreFixed;
+        private final int from;
+        private final int to;
+
+        VelocityTask(SpatialHashGrid grid, boolean roomsAreFixed, int from, int to) {
+            this.grid = grid;
+            this.roomsAreFixed = roomsAreFixed;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > PARALLEL_THRESHOLD) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new VelocityTask(grid, roomsAreFixed, from, middle), new VelocityTask(grid, roomsAreFixed, middle, to));
+                return;
+            }
+
+            IntArray taskNeighbours = workerNeighbours.get();
+
+            for (int i = from; i < to; i++) {
+                if (roomsAreFixed && isRoom[i]) {
+                    velocityX[i] = 0f;
+                    velocityY[i] = 0f;
+                    continue;
+                }
+
+                computeVelocity(grid, i, taskNeighbours);
+            }
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.mygdx.dungen.mapgeneration;
+
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.FloatArray;
+import com.badlogic.gdx.utils.IntArray;
+import com.mygdx.dungen.GameCell;
+import com.mygdx.dungen.GameMap;
+import com.mygdx.dungen.GameRoom;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Poisson disk layout: room centers are sampled with Bridson's algorithm from the center outward,
+ * at a distance large enough for the biggest room circles not to overlap. Cells are then packed in a
+ * spiral around the rooms. Nothing overlaps by construction, only the sampling domain grows until every room fits,
+ * within the separation budget.
+ */
+public class PackingLayoutEngine implements LayoutEngine {
+
+    // Candidates tried around an active sample before it is retired (Bridson's k)
+    private static final int   SAMPLE_ATTEMPTS  = 30;
+    private static final float DOMAIN_GROWTH    = 1.5f;
+
+    private final float roomSpreadRadiusOffset;
+    private final SeparationBudget budget;
+    private SplittableRandom random;
+    private final OverlappingRectanglesSeparator rectanglesSeparator;
+
+    /**
+     * @param roomSpreadRadiusOffset Offset added to the radius of the rooms, like when spreading them
+     * @param budget Budget of the domain growth, one iteration per sampling of the domain
+     */
+    public PackingLayoutEngine(float roomSpreadRadiusOffset, SeparationBudget budget) {
+        this.roomSpreadRadiusOffset = roomSpreadRadiusOffset;
+        this.budget = budget;
+        random = new SplittableRandom();
+        rectanglesSeparator = new OverlappingRectanglesSeparator();
+    }
+
+    @Override
+    public void setRandom(SplittableRandom random) {
+        this.random = random;
+    }
+
+    @Override
+    public void layout(Array<GameCell> cells) throws MapGenException {
+        Array<GameRoom> rooms = GameMap.extractRooms(cells);
+        int roomCount = rooms.size;
+
+        Tracer.info("PackingLayoutEngine", "Packing {} rooms within {} cells", roomCount, cells.size);
+
+        float maxRadius = 0f;
+        for (int i = 0; i < roomCount; i++) {
+            GameRoom room = rooms.get(i);
+            maxRadius = Math.max(maxRadius, (float) Math.sqrt(room.width * room.width / 4 + room.height * room.height / 4));
+        }
+
+        float minDistance = 2 * (maxRadius + roomSpreadRadiusOffset);
+        float domainSize = minDistance * (float) (Math.ceil(Math.sqrt(roomCount)) + 1) * 2;
+
+        long startNanos = System.nanoTime();
+        int iteration = 1;
+
+        FloatArray samples = sample(domainSize, minDistance, roomCount);
+        while (samples.size / 2 < roomCount) {
+            budget.ensureWithinBudget("Room packing", iteration++, startNanos, roomCount - samples.size / 2);
+            domainSize *= DOMAIN_GROWTH;
+            samples = sample(domainSize, minDistance, roomCount);
+        }
+
+        for (int i = 0; i < roomCount; i++) {
+            GameRoom room = rooms.get(i);
+            room.setPosition(Math.round(samples.get(2 * i) - room.width / 2), Math.round(samples.get(2 * i + 1) - room.height / 2));
+        }
+
+        // No jitter, the spiral slots alone guarantee cells don't overlap
+        int center = Math.round(domainSize / 2);
+        rectanglesSeparator.placeCellsInSpiral(cells, center, center, 0);
+    }
+
+    /**
+     * Bridson's Poisson disk sampling in a square, starting from its center
+     * @param size Size of the square
+     * @param minDistance Minimum distance between two samples
+     * @param wanted Number of samples after which sampling stops
+     * @return The samples, x and y interleaved, in the order they were accepted
+     */
+    private FloatArray sample(float size, float minDistance, int wanted) {
+        FloatArray samples = new FloatArray(wanted * 2);
+
+        if (wanted == 0) return samples;
+
+        float bucketSize = minDistance / (float) Math.sqrt(2);
+        int gridSize = (int) Math.ceil(size / bucketSize);
+        int[] grid = new int[gridSize * gridSize];
+        Arrays.fill(grid, -1);
+
+        IntArray active = new IntArray();
+        float minDistance2 = minDistance * minDistance;
+
+        addSample(samples, grid, gridSize, bucketSize, active, size / 2, size / 2);
+
+        while (active.size > 0 && samples.size / 2 < wanted) {
+            int activeIndex = random.nextInt(active.size);
+            int sampleIndex = active.get(activeIndex);
+            float sampleX = samples.get(2 * sampleIndex);
+            float sampleY = samples.get(2 * sampleIndex + 1);
+            boolean accepted = false;
+
+            for (int attempt = 0; attempt < SAMPLE_ATTEMPTS && !accepted; attempt++) {
+                double angle = random.nextDouble() * Math.PI * 2;
+                double distance = minDistance * (1 + random.nextDouble());
+                float candidateX = (float) (sampleX + Math.cos(angle) * distance);
+                float candidateY = (float) (sampleY + Math.sin(angle) * distance);
+
+                if (candidateX < 0 || candidateY < 0 || candidateX >= size || candidateY >= size) continue;
+
+                if (isFarEnough(samples, grid, gridSize, bucketSize, minDistance2, candidateX, candidateY)) {
+                    addSample(samples, grid, gridSize, bucketSize, active, candidateX, candidateY);
+                    accepted = true;
+                }
+            }
+
+            if (!accepted) active.removeIndex(activeIndex);
+        }
+
+        return samples;
+    }
+
+    private void addSample(FloatArray samples, int[] grid, int gridSize, float bucketSize, IntArray active, float x, float y) {
+        int sampleIndex = samples.size / 2;
+
+        samples.add(x);
+        samples.add(y);
+        grid[(int) (y / bucketSize) * gridSize + (int) (x / bucketSize)] = sampleIndex;
+        active.add(sampleIndex);
+    }
+
+    private boolean isFarEnough(FloatArray samples, int[] grid, int gridSize, float bucketSize, float minDistance2, float x, float y) {
+        int bucketX = (int) (x / bucketSize);
+        int bucketY = (int) (y / bucketSize);
+
+        // A bucket holds at most one sample, two buckets around are enough to cover minDistance
+        for (int j = Math.max(0, bucketY - 2); j <= Math.min(gridSize - 1, bucketY + 2); j++) {
+            for (int i = Math.max(0, bucketX - 2); i <= Math.min(gridSize - 1, bucketX + 2); i++) {
+                int sampleIndex = grid[j * gridSize + i];
+
+                if (sampleIndex < 0) continue;
+
+                float diffX = samples.get(2 * sampleIndex) - x;
+                float diffY = samples.get(2 * sampleIndex + 1) - y;
+
+                if (diffX * diffX + diffY * diffY < minDistance2) return false;
+            }
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,43 @@
+package com.mygdx.dungen.mapgeneration;
+
+import java.util.BitSet;
+
+/**
+ * Primitive counterpart of an Array of {@link Radius}: values and above threshold flags stored in one batch
+ */
+public class RadiusBatch {
+
+    private final float[] values;
+    private final BitSet aboveThreshold;
+    private final int aboveThresholdCount;
+
+    public RadiusBatch(float[] values, BitSet aboveThreshold) {
+        this.values = values;
+        this.aboveThreshold = aboveThreshold;
+        this.aboveThresholdCount = aboveThreshold.cardinality();
+    }
+
+    public int size() {
+        return values.length;
+    }
+
+    public float getValue(int index) {
+        return values[index];
+    }
+
+    public boolean isAboveThreshold(int index) {
+        return aboveThreshold.get(index);
+    }
+
+    public int getAboveThresholdCount() {
+        return aboveThresholdCount;
+    }
+
+    public float[] getValues() {
+        return values;
+    }
+
+    public BitSet getAboveThreshold() {
+        return aboveThreshold;
+    }
+}
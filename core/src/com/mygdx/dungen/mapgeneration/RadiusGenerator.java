@@ -1,14 +1,33 @@
 package com.mygdx.dungen.mapgeneration;
 
 
-import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.utils.Array;
 import org.apache.commons.math3.distribution.NormalDistribution;
-import org.apache.commons.math3.random.RandomDataGenerator;
+
+import java.util.BitSet;
+import java.util.SplittableRandom;
 
 public class RadiusGenerator {
 
-    public RadiusGenerator() {}
+    // Coefficients of the inverse normal CDF approximation, central region (A, B) and tails (C, D)
+    private static final double[] INVERSE_CDF_A = {-3.969683028665376e+01, 2.209460984245205e+02, -2.759285104469687e+02, 1.383577518672690e+02, -3.066479806614716e+01, 2.506628277459239e+00};
+    private static final double[] INVERSE_CDF_B = {-5.447609879822406e+01, 1.615858368580409e+02, -1.556989798598866e+02, 6.680131188771972e+01, -1.328068155288572e+01};
+    private static final double[] INVERSE_CDF_C = {-7.784894002430293e-03, -3.223964580411365e-01, -2.400758277161838e+00, -2.549671064456877e+00, 4.374664141464968e+00, 2.938163982698783e+00};
+    private static final double[] INVERSE_CDF_D = {7.784695709041462e-03, 3.224671290700398e-01, 2.445134137142996e+00, 3.754408661907416e+00};
+    private static final double   INVERSE_CDF_LOW = 0.02425;
+
+    private SplittableRandom random;
+
+    public RadiusGenerator() {
+        random = new SplittableRandom();
+    }
+
+    /**
+     * @param random Source of every random draw of this generator, one split of the map seed
+     */
+    public void setRandom(SplittableRandom random) {
+        this.random = random;
+    }
 
     /**
      * Generate a number of Radiuses from a normal distribution according to a threshold and clamped to a min/max
@@ -32,9 +51,9 @@ public class RadiusGenerator {
         }
 
         // Creating normal distribution
-        NormalDistribution distribution = new NormalDistribution(mean, standardDeviation);
+        NormalDistribution distribution = createDistribution(mean, standardDeviation);
 
-        int randomRoomCount = new RandomDataGenerator().nextInt(minRoomCount, maxRoomCount);
+        int randomRoomCount = random.nextInt(minRoomCount, maxRoomCount + 1);
         int roomCount = 0;
 
         Array<Radius> radiuses = new Array<Radius>(radiusCount);
@@ -42,7 +61,7 @@ public class RadiusGenerator {
         float sample;
 
         while (roomCount < randomRoomCount) {
-            sample = Math.abs((float) distribution.sample());
+            sample = sampleAbsolute(distribution, random.nextDouble());
             boolean isAboveThreshold = sample >= threshold;
 
             if (isAboveThreshold) {
@@ -52,7 +71,7 @@ public class RadiusGenerator {
         }
 
         while (radiuses.size < radiusCount) {
-            sample = Math.abs((float) distribution.sample());
+            sample = sampleAbsolute(distribution, random.nextDouble());
             boolean isAboveThreshold = sample >= threshold;
 
             if (!isAboveThreshold) {
@@ -60,14 +79,139 @@ public class RadiusGenerator {
             }
         }
 
-        Gdx.app.log("RadiusGenerator", "-------- Now generating radiuses --------");
-        Gdx.app.log("RadiusGenerator", "Desired number of radiuses: " + radiusCount);
-        Gdx.app.log("RadiusGenerator", "Between " + minRoomCount + " and " + maxRoomCount + " will be above threshold");
-        Gdx.app.log("RadiusGenerator", "-- Generation DONE -- Radiuses above threshold: " + roomCount);
+        Tracer.info("RadiusGenerator", "-------- Now generating radiuses --------");
+        Tracer.info("RadiusGenerator", "Desired number of radiuses: {}", radiusCount);
+        Tracer.info("RadiusGenerator", "Between {} and {} will be above threshold", minRoomCount, maxRoomCount);
+        Tracer.info("RadiusGenerator", "-- Generation DONE -- Radiuses above threshold: {}", roomCount);
 
         return radiuses;
     }
 
+    /**
+     * Same distribution as {@link #generateRadiuses(int, float, float, float, double, double, float)} without rejection:
+     * samples are drawn directly from the truncated tails by inverse CDF, so every draw is kept and nothing is boxed
+     * @param radiusCount Number of samples desired
+     * @param minRoomCountMultiplier Min value of sample above threshold
+     * @param maxRoomCountMultiplier Max value of sample above threshold
+     * @param radiusMultiplier Multiplier to scale to game units
+     * @param mean Mean used in the normal distribution
+     * @param standardDeviation Standard deviation used in the normal distribution
+     * @param threshold Threshold used in the normal distribution (in raw form and not the percentile you want)
+     * @return The radiuses, the ones above threshold first
+     */
+    public RadiusBatch generateRadiusBatch(int radiusCount, float minRoomCountMultiplier, float maxRoomCountMultiplier, float radiusMultiplier, double mean, double standardDeviation, float threshold) throws MapGenException {
+
+        //Setting up MIN and MAX number of rooms
+        int minRoomCount = (int) (radiusCount * minRoomCountMultiplier);
+        int maxRoomCount = (int) (radiusCount * maxRoomCountMultiplier);
+
+        if ((minRoomCount > radiusCount) || (minRoomCount < 0) || (maxRoomCount > radiusCount) || (maxRoomCount < 0)) {
+            throw new MapGenException("Impossible min/max room count");
+        }
+
+        NormalDistribution distribution = createDistribution(mean, standardDeviation);
+
+        // |sample| >= threshold means sample <= -threshold or sample >= threshold
+        double lowerTailMass = distribution.cumulativeProbability(-threshold);
+        double upperTailStart = distribution.cumulativeProbability(threshold);
+        double aboveThresholdMass = lowerTailMass + (1 - upperTailStart);
+
+        if (aboveThresholdMass <= 0 || upperTailStart - lowerTailMass <= 0) {
+            throw new MapGenException("Threshold leaves no probability on one side of the distribution");
+        }
+
+        int randomRoomCount = random.nextInt(minRoomCount, maxRoomCount + 1);
+
+        float[] values = new float[radiusCount];
+        BitSet aboveThreshold = new BitSet(radiusCount);
+
+        for (int i = 0; i < randomRoomCount; i++) {
+            values[i] = sampleAboveThreshold(distribution, lowerTailMass, upperTailStart, threshold) * radiusMultiplier;
+            aboveThreshold.set(i);
+        }
+
+        for (int i = randomRoomCount; i < radiusCount; i++) {
+            double probability = lowerTailMass + random.nextDouble() * (upperTailStart - lowerTailMass);
+
+            values[i] = Math.min(sampleAbsolute(distribution, probability), Math.nextDown(threshold)) * radiusMultiplier;
+        }
+
+        Tracer.info("RadiusGenerator", "-------- Now generating radius batch --------");
+        Tracer.info("RadiusGenerator", "Desired number of radiuses: {}", radiusCount);
+        Tracer.info("RadiusGenerator", "Between {} and {} will be above threshold", minRoomCount, maxRoomCount);
+        Tracer.info("RadiusGenerator", "-- Generation DONE -- Radiuses above threshold: {}", randomRoomCount);
+
+        return new RadiusBatch(values, aboveThreshold);
+    }
+
+    /**
+     * Draw one radius above threshold, like the room radiuses of generateRadiusBatch
+     * (used to re-roll a single room without generating a whole batch)
+     */
+    public float generateRoomRadius(float radiusMultiplier, double mean, double standardDeviation, float threshold) throws MapGenException {
+        NormalDistribution distribution = createDistribution(mean, standardDeviation);
+
+        double lowerTailMass = distribution.cumulativeProbability(-threshold);
+        double upperTailStart = distribution.cumulativeProbability(threshold);
+
+        if (lowerTailMass + (1 - upperTailStart) <= 0) {
+            throw new MapGenException("Threshold leaves no probability on one side of the distribution");
+        }
+
+        return sampleAboveThreshold(distribution, lowerTailMass, upperTailStart, threshold) * radiusMultiplier;
+    }
+
+    /**
+     * Inverse transform sampling restricted to both tails: |sample| >= threshold
+     */
+    private float sampleAboveThreshold(NormalDistribution distribution, double lowerTailMass, double upperTailStart, float threshold) {
+        double probability = random.nextDouble() * (lowerTailMass + (1 - upperTailStart));
+        if (probability >= lowerTailMass) probability = upperTailStart + (probability - lowerTailMass);
+
+        // The float rounding must not bring a sample back under the threshold
+        return Math.max(sampleAbsolute(distribution, probability), threshold);
+    }
+
+    /**
+     * Only used for its CDF, samples are drawn with random and the inverse CDF, so it gets no generator of its own
+     * (the default one is a Well19937c seeded from the clock)
+     */
+    private static NormalDistribution createDistribution(double mean, double standardDeviation) {
+        return new NormalDistribution(null, mean, standardDeviation);
+    }
+
+    private float sampleAbsolute(NormalDistribution distribution, double probability) {
+        // Guards against the 0 and 1 probabilities which would map to infinities
+        probability = Math.min(Math.max(probability, Double.MIN_NORMAL), 1 - 1e-16);
+
+        double sample = distribution.getMean() + distribution.getStandardDeviation() * inverseStandardNormal(probability);
+
+        return Math.abs((float) sample);
+    }
+
+    /**
+     * Inverse CDF of the standard normal distribution, Acklam's rational approximation.
+     * Relative error below 1.2e-9, far under float precision and much cheaper than the erf inverse of commons-math.
+     */
+    private static double inverseStandardNormal(double probability) {
+        if (probability < INVERSE_CDF_LOW) {
+            double q = Math.sqrt(-2 * Math.log(probability));
+            return (((((INVERSE_CDF_C[0] * q + INVERSE_CDF_C[1]) * q + INVERSE_CDF_C[2]) * q + INVERSE_CDF_C[3]) * q + INVERSE_CDF_C[4]) * q + INVERSE_CDF_C[5])
+                    / ((((INVERSE_CDF_D[0] * q + INVERSE_CDF_D[1]) * q + INVERSE_CDF_D[2]) * q + INVERSE_CDF_D[3]) * q + 1);
+        }
+
+        if (probability > 1 - INVERSE_CDF_LOW) {
+            double q = Math.sqrt(-2 * Math.log(1 - probability));
+            return -(((((INVERSE_CDF_C[0] * q + INVERSE_CDF_C[1]) * q + INVERSE_CDF_C[2]) * q + INVERSE_CDF_C[3]) * q + INVERSE_CDF_C[4]) * q + INVERSE_CDF_C[5])
+                    / ((((INVERSE_CDF_D[0] * q + INVERSE_CDF_D[1]) * q + INVERSE_CDF_D[2]) * q + INVERSE_CDF_D[3]) * q + 1);
+        }
+
+        double q = probability - 0.5;
+        double r = q * q;
+        return (((((INVERSE_CDF_A[0] * r + INVERSE_CDF_A[1]) * r + INVERSE_CDF_A[2]) * r + INVERSE_CDF_A[3]) * r + INVERSE_CDF_A[4]) * r + INVERSE_CDF_A[5]) * q
+                / (((((INVERSE_CDF_B[0] * r + INVERSE_CDF_B[1]) * r + INVERSE_CDF_B[2]) * r + INVERSE_CDF_B[3]) * r + INVERSE_CDF_B[4]) * r + 1);
+    }
+
     /**
      * Generate a number of Radiuses from a normal distribution according to a threshold and clamped to a min/max
      * @param radiusCount Number of samples desired
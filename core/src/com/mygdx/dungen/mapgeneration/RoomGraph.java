@@ -0,0 +1,143 @@
+package com.mygdx.dungen.mapgeneration;
+
+import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.IntArray;
+import com.mygdx.dungen.GameRoom;
+import org.jgrapht.graph.Multigraph;
+
+/**
+ * Undirected graph between rooms stored in primitive arrays.
+ * Rooms are identified by their index in the rooms array and edges by their insertion index,
+ * adjacency is kept in compressed sparse row form: the neighbours of room r are at [offsets[r], offsets[r + 1]).
+ */
+public class RoomGraph {
+
+    private final Array<GameRoom> rooms;
+
+    private final int[] edgeSources;
+    private final int[] edgeTargets;
+    private final float[] edgeLengths;
+
+    private final int[] offsets;
+    private final int[] neighbours;
+    private final int[] neighbourEdges;
+
+    /**
+     * @param rooms The rooms, a room id is its index in this array
+     * @param edges Room ids of the edges, two consecutive values per edge
+     */
+    public RoomGraph(Array<GameRoom> rooms, IntArray edges) {
+        this.rooms = rooms;
+
+        int roomCount = rooms.size;
+        int edgeCount = edges.size / 2;
+
+        edgeSources = new int[edgeCount];
+        edgeTargets = new int[edgeCount];
+        edgeLengths = new float[edgeCount];
+        offsets = new int[roomCount + 1];
+        neighbours = new int[2 * edgeCount];
+        neighbourEdges = new int[2 * edgeCount];
+
+        Vector2 sourceCenter = new Vector2();
+        Vector2 targetCenter = new Vector2();
+
+        for (int e = 0; e < edgeCount; e++) {
+            edgeSources[e] = edges.get(2 * e);
+            edgeTargets[e] = edges.get(2 * e + 1);
+
+            rooms.get(edgeSources[e]).getCenter(sourceCenter);
+            rooms.get(edgeTargets[e]).getCenter(targetCenter);
+            edgeLengths[e] = sourceCenter.dst(targetCenter);
+
+            offsets[edgeSources[e] + 1]++;
+            offsets[edgeTargets[e] + 1]++;
+        }
+
+        for (int r = 0; r < roomCount; r++) {
+            offsets[r + 1] += offsets[r];
+        }
+
+        int[] cursors = new int[roomCount];
+        System.arraycopy(offsets, 0, cursors, 0, roomCount);
+
+        for (int e = 0; e < edgeCount; e++) {
+            int source = edgeSources[e];
+            int target = edgeTargets[e];
+
+            neighbours[cursors[source]] = target;
+            neighbourEdges[cursors[source]++] = e;
+            neighbours[cursors[target]] = source;
+            neighbourEdges[cursors[target]++] = e;
+        }
+    }
+
+    public int getRoomCount() {
+        return rooms.size;
+    }
+
+    public GameRoom getRoom(int room) {
+        return rooms.get(room);
+    }
+
+    public Array<GameRoom> getRooms() {
+        return rooms;
+    }
+
+    public int getEdgeCount() {
+        return edgeSources.length;
+    }
+
+    public int getEdgeSource(int edge) {
+        return edgeSources[edge];
+    }
+
+    public int getEdgeTarget(int edge) {
+        return edgeTargets[edge];
+    }
+
+    /**
+     * @return The distance between the centers of both rooms of the edge
+     */
+    public float getEdgeLength(int edge) {
+        return edgeLengths[edge];
+    }
+
+    public int getDegree(int room) {
+        return offsets[room + 1] - offsets[room];
+    }
+
+    /**
+     * @param index From 0 to getDegree(room) - 1
+     */
+    public int getNeighbour(int room, int index) {
+        return neighbours[offsets[room] + index];
+    }
+
+    /**
+     * @param index From 0 to getDegree(room) - 1
+     * @return The edge linking room to getNeighbour(room, index)
+     */
+    public int getNeighbourEdge(int room, int index) {
+        return neighbourEdges[offsets[room] + index];
+    }
+
+    /**
+     * Copy of this graph as a JGraphT Multigraph. Rooms are mutable rectangles hashed by their bounds,
+     * they must not move while the copy is used.
+     */
+    public Multigraph<GameRoom, NoDuplicateEdge> toJGraphT() {
+        Multigraph<GameRoom, NoDuplicateEdge> graph = new Multigraph<>(NoDuplicateEdge.class);
+
+        for (int r = 0; r < rooms.size; r++) {
+            graph.addVertex(rooms.get(r));
+        }
+
+        for (int e = 0; e < edgeSources.length; e++) {
+            graph.addEdge(rooms.get(edgeSources[e]), rooms.get(edgeTargets[e]));
+        }
+
+        return graph;
+    }
+}
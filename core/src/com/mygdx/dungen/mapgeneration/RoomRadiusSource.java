@@ -0,0 +1,12 @@
+package com.mygdx.dungen.mapgeneration;
+
+/**
+ * New radiuses for the rooms whose ratio can't be met, see CellGenerator.generateCellsFromRadiuses
+ */
+public interface RoomRadiusSource {
+
+    /**
+     * @return A radius above threshold, in game units
+     */
+    float nextRoomRadius() throws MapGenException;
+}
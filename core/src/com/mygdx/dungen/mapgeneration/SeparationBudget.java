@@ -0,0 +1,55 @@
+package com.mygdx.dungen.mapgeneration;
+
+/**
+ * Iteration and time limits of a single separation call
+ */
+public class SeparationBudget {
+
+    public static final SeparationBudget UNLIMITED = new SeparationBudget(Integer.MAX_VALUE, Long.MAX_VALUE);
+
+    private final int maxIterations;
+    private final long maxMillis;
+
+    /**
+     * @param maxIterations Maximum number of passes over the rectangles
+     * @param maxMillis Maximum time spent in the call, in milliseconds
+     */
+    public SeparationBudget(int maxIterations, long maxMillis) {
+        if (maxIterations <= 0 || maxMillis <= 0) throw new IllegalArgumentException("Separation budget should be > 0");
+
+        this.maxIterations = maxIterations;
+        this.maxMillis = maxMillis;
+    }
+
+    /**
+     * Throw if another pass would go over the budget or the thread was interrupted
+     * @param stage Name of the separation stage, used in the exception message
+     * @param iteration Number of passes already done
+     * @param startNanos Value of System.nanoTime() when the call started
+     * @param overlapCount Number of rectangles still overlapping after the last pass
+     */
+    public void ensureWithinBudget(String stage, int iteration, long startNanos, int overlapCount) throws MapGenException {
+        // Cooperative cancellation of a speculative generation that lost the race
+        if (Thread.currentThread().isInterrupted()) {
+            throw new MapGenException(stage + " cancelled after " + iteration + " iterations");
+        }
+
+        if (iteration >= maxIterations) {
+            throw new MapGenException(stage + " did not converge within " + maxIterations + " iterations (" + overlapCount + " rectangles still overlapping)");
+        }
+
+        long elapsedMillis = (System.nanoTime() - startNanos) / 1000000L;
+
+        if (elapsedMillis > maxMillis) {
+            throw new MapGenException(stage + " did not converge within " + maxMillis + " ms, stopped after " + iteration + " iterations (" + overlapCount + " rectangles still overlapping)");
+        }
+    }
+
+    public int getMaxIterations() {
+        return maxIterations;
+    }
+
+    public long getMaxMillis() {
+        return maxMillis;
+    }
+}
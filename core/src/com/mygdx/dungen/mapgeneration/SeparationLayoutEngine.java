@@ -0,0 +1,122 @@
+package com.mygdx.dungen.mapgeneration;
+
+import com.badlogic.gdx.math.Rectangle;
+import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.utils.Array;
+import com.mygdx.dungen.GameCell;
+import com.mygdx.dungen.GameMap;
+
+import java.util.SplittableRandom;
+
+/**
+ * Physics like layout: rooms are spread until their circles don't overlap,
+ * cells are placed around them then pushed apart until nothing overlaps
+ */
+public class SeparationLayoutEngine implements LayoutEngine {
+
+    private final OverlappingRectanglesSeparator rectanglesSeparator;
+    private final PackedRectanglesSeparator packedRectanglesSeparator;
+    // Only created in BOX2D mode, so the natives are not loaded otherwise
+    private final Box2DRectanglesSeparator box2DRectanglesSeparator;
+
+    private final SeparationMode separationMode;
+    private final CellPlacement cellPlacement;
+    private final int cellPlacementJitter;
+    private final float roomSpreadRadiusOffset;
+
+    /**
+     * @param separationMode Engine spreading the rooms and separating the cells
+     * @param cellPlacement How cells are placed around the rooms before being separated
+     * @param cellPlacementJitter Random offset of the cells placed in a spiral
+     * @param roomSpreadRadiusOffset Offset added to the radius of the rooms when spreading them
+     * @param budget Budget of each spreading / separation call
+     */
+    public SeparationLayoutEngine(SeparationMode separationMode, CellPlacement cellPlacement, int cellPlacementJitter, float roomSpreadRadiusOffset, SeparationBudget budget) {
+        this.separationMode = separationMode;
+        this.cellPlacement = cellPlacement;
+        this.cellPlacementJitter = cellPlacementJitter;
+        this.roomSpreadRadiusOffset = roomSpreadRadiusOffset;
+
+        rectanglesSeparator = new OverlappingRectanglesSeparator();
+        packedRectanglesSeparator = new PackedRectanglesSeparator();
+        rectanglesSeparator.setBudget(budget);
+        packedRectanglesSeparator.setBudget(budget);
+
+        if (separationMode == SeparationMode.BOX2D) {
+            box2DRectanglesSeparator = new Box2DRectanglesSeparator();
+            box2DRectanglesSeparator.setBudget(budget);
+        } else {
+            box2DRectanglesSeparator = null;
+        }
+    }
+
+    @Override
+    public void setRandom(SplittableRandom random) {
+        rectanglesSeparator.setRandom(random.split());
+        packedRectanglesSeparator.setRandom(random.split());
+        if (box2DRectanglesSeparator != null) box2DRectanglesSeparator.setRandom(random.split());
+    }
+
+    @Override
+    public void layout(Array<GameCell> cells) throws MapGenException {
+
+        // Spreading rooms
+        spreadRooms(cells);
+
+        // Moving cells around the center of the spread rooms so they can separate homogeneously
+        Vector2 roomsBoundingBoxCenter = new Vector2();
+        Rectangle roomsBoundingBox = rectanglesSeparator.findBoundingBox(GameMap.extractRooms(cells));
+        roomsBoundingBox.getCenter(roomsBoundingBoxCenter);
+        placeCells(cells, ((int) roomsBoundingBoxCenter.x), ((int) roomsBoundingBoxCenter.y));
+
+        // Separating cells with rooms fixed
+        separateOverlappingCells(cells);
+    }
+
+    public void setListener(SeparationListener listener) {
+        rectanglesSeparator.setListener(listener);
+        packedRectanglesSeparator.setListener(listener);
+        if (box2DRectanglesSeparator != null) box2DRectanglesSeparator.setListener(listener);
+    }
+
+    private void placeCells(Array<GameCell> cells, int x, int y) {
+        switch (cellPlacement) {
+            case CENTER:
+                rectanglesSeparator.moveCellsWithOffset(cells, x, y, 1, 1);
+                break;
+            case SPIRAL:
+                rectanglesSeparator.placeCellsInSpiral(cells, x, y, cellPlacementJitter);
+                break;
+        }
+    }
+
+    private void spreadRooms(Array<GameCell> cells) throws MapGenException {
+        switch (separationMode) {
+            case SEQUENTIAL:
+                rectanglesSeparator.spreadRooms(cells, roomSpreadRadiusOffset);
+                break;
+            case PACKED:
+            case PARALLEL:
+            case BOX2D:
+                packedRectanglesSeparator.spreadRooms(cells, roomSpreadRadiusOffset);
+                break;
+        }
+    }
+
+    private void separateOverlappingCells(Array<GameCell> cells) throws MapGenException {
+        switch (separationMode) {
+            case SEQUENTIAL:
+                rectanglesSeparator.separateOverlappingRectangles(cells, true);
+                break;
+            case PACKED:
+                packedRectanglesSeparator.separateOverlappingRectangles(cells, true);
+                break;
+            case PARALLEL:
+                packedRectanglesSeparator.separateOverlappingRectanglesParallel(cells, true);
+                break;
+            case BOX2D:
+                box2DRectanglesSeparator.separateOverlappingRectangles(cells, true);
+                break;
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.mygdx.dungen.mapgeneration;
+
+/**
+ * Progress report of the separation engines, called after every pass
+ */
+public interface SeparationListener {
+
+    /**
+     * @param stage Name of the separation stage (spreading rooms or separating cells)
+     * @param iteration Number of passes done, starting at 1
+     * @param overlapCount Number of rectangles that still overlapped another one during the pass
+     * @param maxDisplacement Largest distance a rectangle moved during the pass
+     */
+    void onIteration(String stage, int iteration, int overlapCount, float maxDisplacement);
+}
@@ -0,0 +1,15 @@
+package com.mygdx.dungen.mapgeneration;
+
+/**
+ * Engine used to spread rooms and separate overlapping cells
+ */
+public enum SeparationMode {
+    // OverlappingRectanglesSeparator, works directly on the GameCells
+    SEQUENTIAL,
+    // PackedRectanglesSeparator, works on primitive copies of the GameCells
+    PACKED,
+    // PackedRectanglesSeparator with the cells separation spread over a ForkJoinPool
+    PARALLEL,
+    // Box2DRectanglesSeparator for the cells, rooms are still spread by the PackedRectanglesSeparator
+    BOX2D
+}
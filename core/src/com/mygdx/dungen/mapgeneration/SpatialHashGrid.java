@@ -0,0 +1,161 @@
+package com.mygdx.dungen.mapgeneration;
+
+import com.badlogic.gdx.utils.IntArray;
+import com.badlogic.gdx.utils.LongMap;
+
+import java.util.Arrays;
+
+/**
+ * Uniform grid broad phase over axis aligned rectangles.
+ * Rectangles are identified by an index and registered in every bucket they cover,
+ * so a query only has to look at the buckets covered by the queried area.
+ */
+public class SpatialHashGrid {
+
+    private final float bucketSize;
+    private final LongMap<IntArray> buckets;
+
+    // Bucket range covered by each index (inclusive)
+    private int[] minBucketX;
+    private int[] minBucketY;
+    private int[] maxBucketX;
+    private int[] maxBucketY;
+
+    /**
+     * @param bucketSize Width and height of a bucket in game units
+     * @param capacity Expected number of indices, the grid grows if more are inserted
+     */
+    public SpatialHashGrid(float bucketSize, int capacity) {
+        if (bucketSize <= 0f) throw new IllegalArgumentException("Bucket size should be > 0");
+
+        this.bucketSize = bucketSize;
+        this.buckets = new LongMap<>(Math.max(capacity, 16));
+
+        capacity = Math.max(capacity, 1);
+        minBucketX = new int[capacity];
+        minBucketY = new int[capacity];
+        maxBucketX = new int[capacity];
+        maxBucketY = new int[capacity];
+    }
+
+    /**
+     * Register a rectangle in every bucket it covers
+     * @param index Index identifying the rectangle, must not already be in the grid
+     */
+    public void insert(int index, float x, float y, float width, float height) {
+        ensureCapacity(index + 1);
+
+        minBucketX[index] = toBucket(x);
+        minBucketY[index] = toBucket(y);
+        maxBucketX[index] = toBucket(x + width);
+        maxBucketY[index] = toBucket(y + height);
+
+        addToBuckets(index);
+    }
+
+    /**
+     * Move an already inserted rectangle, buckets are only touched if its bucket range changed
+     * @param index Index identifying the rectangle
+     */
+    public void update(int index, float x, float y, float width, float height) {
+        int newMinX = toBucket(x);
+        int newMinY = toBucket(y);
+        int newMaxX = toBucket(x + width);
+        int newMaxY = toBucket(y + height);
+
+        if (newMinX == minBucketX[index] && newMinY == minBucketY[index] && newMaxX == maxBucketX[index] && newMaxY == maxBucketY[index]) return;
+
+        removeFromBuckets(index);
+
+        minBucketX[index] = newMinX;
+        minBucketY[index] = newMinY;
+        maxBucketX[index] = newMaxX;
+        maxBucketY[index] = newMaxY;
+
+        addToBuckets(index);
+    }
+
+    /**
+     * Collect the indices of the rectangles sharing at least one bucket with the given area.
+     * Each index is reported once. The grid is not modified, so concurrent queries are safe as long as nobody inserts or updates.
+     * @param result Cleared then filled with the candidate indices
+     */
+    public void query(float x, float y, float width, float height, IntArray result) {
+        result.clear();
+
+        int queryMinX = toBucket(x);
+        int queryMinY = toBucket(y);
+        int queryMaxX = toBucket(x + width);
+        int queryMaxY = toBucket(y + height);
+
+        for (int bucketX = queryMinX; bucketX <= queryMaxX; bucketX++) {
+            for (int bucketY = queryMinY; bucketY <= queryMaxY; bucketY++) {
+                IntArray bucket = buckets.get(key(bucketX, bucketY));
+
+                if (bucket == null) continue;
+
+                for (int i = 0; i < bucket.size; i++) {
+                    int index = bucket.get(i);
+
+                    // An index is only reported from the first bucket shared by both ranges, so no duplicates
+                    if (Math.max(queryMinX, minBucketX[index]) != bucketX) continue;
+                    if (Math.max(queryMinY, minBucketY[index]) != bucketY) continue;
+
+                    result.add(index);
+                }
+            }
+        }
+    }
+
+    public void clear() {
+        buckets.clear();
+    }
+
+    public float getBucketSize() {
+        return bucketSize;
+    }
+
+    private void addToBuckets(int index) {
+        for (int bucketX = minBucketX[index]; bucketX <= maxBucketX[index]; bucketX++) {
+            for (int bucketY = minBucketY[index]; bucketY <= maxBucketY[index]; bucketY++) {
+                long key = key(bucketX, bucketY);
+                IntArray bucket = buckets.get(key);
+
+                if (bucket == null) {
+                    bucket = new IntArray(false, 8);
+                    buckets.put(key, bucket);
+                }
+
+                bucket.add(index);
+            }
+        }
+    }
+
+    private void removeFromBuckets(int index) {
+        for (int bucketX = minBucketX[index]; bucketX <= maxBucketX[index]; bucketX++) {
+            for (int bucketY = minBucketY[index]; bucketY <= maxBucketY[index]; bucketY++) {
+                IntArray bucket = buckets.get(key(bucketX, bucketY));
+
+                if (bucket != null) bucket.removeValue(index);
+            }
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= minBucketX.length) return;
+
+        int newCapacity = Math.max(capacity, minBucketX.length * 2);
+        minBucketX = Arrays.copyOf(minBucketX, newCapacity);
+        minBucketY = Arrays.copyOf(minBucketY, newCapacity);
+        maxBucketX = Arrays.copyOf(maxBucketX, newCapacity);
+        maxBucketY = Arrays.copyOf(maxBucketY, newCapacity);
+    }
+
+    private int toBucket(float coordinate) {
+        return (int) Math.floor(coordinate / bucketSize);
+    }
+
+    private static long key(int bucketX, int bucketY) {
+        return ((long) bucketX << 32) | (bucketY & 0xFFFFFFFFL);
+    }
+}
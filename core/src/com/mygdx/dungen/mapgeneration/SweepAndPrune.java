@@ -0,0 +1,106 @@
+package com.mygdx.dungen.mapgeneration;
+
+import com.badlogic.gdx.utils.IntArray;
+
+import java.util.Arrays;
+
+/**
+ * Sort and sweep broad phase over 1D intervals.
+ * Intervals are kept sorted by their lower bound, the order from the previous sort is reused
+ * so a sort after small moves is close to linear (insertion sort on a nearly sorted array).
+ */
+public class SweepAndPrune {
+
+    private final float[] min;
+    private final float[] max;
+    private final int[] order;
+    private final int count;
+
+    private boolean sorted;
+
+    /**
+     * @param count Number of intervals, identified by index from 0 to count - 1
+     */
+    public SweepAndPrune(int count) {
+        this.count = count;
+        this.min = new float[count];
+        this.max = new float[count];
+        this.order = new int[count];
+
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+    }
+
+    public void setInterval(int index, float min, float max) {
+        this.min[index] = min;
+        this.max[index] = max;
+    }
+
+    /**
+     * Sort the intervals by lower bound. The first call does a full sort, the next ones
+     * insertion sort the order of the previous call.
+     */
+    public void sort() {
+        if (!sorted) {
+            fullSort();
+            sorted = true;
+            return;
+        }
+
+        for (int i = 1; i < count; i++) {
+            int index = order[i];
+            float value = min[index];
+            int j = i - 1;
+
+            while (j >= 0 && min[order[j]] > value) {
+                order[j + 1] = order[j];
+                j--;
+            }
+
+            order[j + 1] = index;
+        }
+    }
+
+    /**
+     * Sweep the sorted intervals and report every pair whose intervals intersect.
+     * {@link #sort()} must have been called after the last interval update.
+     * @param pairs Cleared then filled with the pairs, two consecutive values per pair
+     */
+    public void findOverlappingPairs(IntArray pairs) {
+        pairs.clear();
+
+        for (int i = 0; i < count; i++) {
+            int index = order[i];
+            float upper = max[index];
+
+            for (int j = i + 1; j < count; j++) {
+                int otherIndex = order[j];
+
+                // Every following interval starts even further, nothing else can intersect
+                if (min[otherIndex] > upper) break;
+
+                pairs.add(index);
+                pairs.add(otherIndex);
+            }
+        }
+    }
+
+    private void fullSort() {
+        long[] keys = new long[count];
+
+        for (int i = 0; i < count; i++) {
+            // Float bits made monotonic as signed ints, index kept in the low bits
+            int bits = Float.floatToIntBits(min[i]);
+            bits ^= (bits >> 31) & 0x7FFFFFFF;
+
+            keys[i] = ((long) bits << 32) | i;
+        }
+
+        Arrays.sort(keys);
+
+        for (int i = 0; i < count; i++) {
+            order[i] = (int) keys[i];
+        }
+    }
+}
@@ -0,0 +1,422 @@
+package com.mygdx.dungen.mapgeneration;
+
+import com.badlogic.gdx.utils.IntArray;
+
+import java.util.Arrays;
+
+/**
+ * Delaunay triangulation by radial sweep-hull (same algorithm as the Delaunator library), in O(n log n) with int indices.
+ * Points are sorted by distance to the circumcenter of a seed triangle and added one by one to a convex hull,
+ * the new triangles are legalized by edge flips.
+ * The sort is the n log n part and is done with Arrays.parallelSort, the sweep itself is linear and sequential.
+ */
+public class SweepHullTriangulator {
+
+    private static final double EPSILON = Math.ulp(1.0);
+
+    private int[] triangles;
+    private int[] halfedges;
+    private int trianglesLength;
+
+    // Hull as a doubly linked list of point indices, with the triangle on the outside of each hull edge
+    private int[] hullPrev;
+    private int[] hullNext;
+    private int[] hullTri;
+    private int[] hullHash;
+    private int hullStart;
+    private int hashSize;
+
+    private double centerX;
+    private double centerY;
+
+    private float[] points;
+    private int[] edgeStack = new int[512];
+
+    public SweepHullTriangulator() {}
+
+    /**
+     * @param points Point coordinates, x and y of each point consecutive, must not contain duplicates
+     * @param triangles Cleared then filled with the point indices of the triangles, three consecutive values per triangle
+     */
+    public void computeTriangles(float[] points, IntArray triangles) {
+        triangles.clear();
+
+        int pointCount = points.length / 2;
+        if (pointCount < 3) return;
+
+        this.points = points;
+        allocate(pointCount);
+
+        int seed0 = findClosestPoint(pointCount, centerX, centerY, -1);
+        int seed1 = findClosestPoint(pointCount, points[2 * seed0], points[2 * seed0 + 1], seed0);
+        int seed2 = findSmallestCircumcircle(pointCount, seed0, seed1);
+
+        // Every point on a line, no triangle
+        if (seed2 == -1) return;
+
+        if (orient(points[2 * seed0], points[2 * seed0 + 1], points[2 * seed1], points[2 * seed1 + 1], points[2 * seed2], points[2 * seed2 + 1])) {
+            int tmp = seed1;
+            seed1 = seed2;
+            seed2 = tmp;
+        }
+
+        setCircumcenter(seed0, seed1, seed2);
+        int[] ids = sortByDistanceToCenter(pointCount);
+
+        hullStart = seed0;
+        hullNext[seed0] = hullPrev[seed2] = seed1;
+        hullNext[seed1] = hullPrev[seed0] = seed2;
+        hullNext[seed2] = hullPrev[seed1] = seed0;
+
+        hullTri[seed0] = 0;
+        hullTri[seed1] = 1;
+        hullTri[seed2] = 2;
+
+        Arrays.fill(hullHash, -1);
+        hullHash[hashKey(points[2 * seed0], points[2 * seed0 + 1])] = seed0;
+        hullHash[hashKey(points[2 * seed1], points[2 * seed1 + 1])] = seed1;
+        hullHash[hashKey(points[2 * seed2], points[2 * seed2 + 1])] = seed2;
+
+        trianglesLength = 0;
+        addTriangle(seed0, seed1, seed2, -1, -1, -1);
+
+        for (int k = 0; k < pointCount; k++) {
+            int i = ids[k];
+
+            if (i == seed0 || i == seed1 || i == seed2) continue;
+
+            addPoint(i);
+        }
+
+        triangles.addAll(this.triangles, 0, trianglesLength);
+        this.points = null;
+    }
+
+    private void allocate(int pointCount) {
+        int maxTriangles = Math.max(2 * pointCount - 5, 0);
+
+        if (triangles == null || triangles.length < maxTriangles * 3) {
+            triangles = new int[maxTriangles * 3];
+            halfedges = new int[maxTriangles * 3];
+        }
+
+        if (hullPrev == null || hullPrev.length < pointCount) {
+            hullPrev = new int[pointCount];
+            hullNext = new int[pointCount];
+            hullTri = new int[pointCount];
+        }
+
+        hashSize = (int) Math.ceil(Math.sqrt(pointCount));
+        if (hullHash == null || hullHash.length < hashSize) hullHash = new int[hashSize];
+
+        float minX = Float.POSITIVE_INFINITY;
+        float minY = Float.POSITIVE_INFINITY;
+        float maxX = Float.NEGATIVE_INFINITY;
+        float maxY = Float.NEGATIVE_INFINITY;
+
+        for (int i = 0; i < pointCount; i++) {
+            float x = points[2 * i];
+            float y = points[2 * i + 1];
+
+            if (x < minX) minX = x;
+            if (y < minY) minY = y;
+            if (x > maxX) maxX = x;
+            if (y > maxY) maxY = y;
+        }
+
+        centerX = (minX + maxX) / 2.0;
+        centerY = (minY + maxY) / 2.0;
+    }
+
+    private void addPoint(int i) {
+        double x = points[2 * i];
+        double y = points[2 * i + 1];
+
+        // Find a visible edge on the hull, starting from the hull point with the nearest angle
+        int start = 0;
+        int key = hashKey(x, y);
+
+        for (int j = 0; j < hashSize; j++) {
+            start = hullHash[(key + j) % hashSize];
+            if (start != -1 && start != hullNext[start]) break;
+        }
+
+        start = hullPrev[start];
+        int e = start;
+        int q;
+
+        while (!orient(x, y, points[2 * e], points[2 * e + 1], points[2 * (q = hullNext[e])], points[2 * q + 1])) {
+            e = q;
+
+            // Inside the hull, only happens with near duplicate points
+            if (e == start) return;
+        }
+
+        int t = addTriangle(e, i, hullNext[e], -1, -1, hullTri[e]);
+
+        hullTri[i] = legalize(t + 2);
+        hullTri[e] = t;
+
+        // Walk forward through the hull, adding triangles and flipping
+        int next = hullNext[e];
+
+        while (orient(x, y, points[2 * next], points[2 * next + 1], points[2 * (q = hullNext[next])], points[2 * q + 1])) {
+            t = addTriangle(next, i, q, hullTri[i], -1, hullTri[next]);
+            hullTri[i] = legalize(t + 2);
+            hullNext[next] = next;
+            next = q;
+        }
+
+        // Walk backward from the other side
+        if (e == start) {
+            while (orient(x, y, points[2 * (q = hullPrev[e])], points[2 * q + 1], points[2 * e], points[2 * e + 1])) {
+                t = addTriangle(q, i, e, -1, hullTri[e], hullTri[q]);
+                legalize(t + 2);
+                hullTri[q] = t;
+                hullNext[e] = e;
+                e = q;
+            }
+        }
+
+        hullStart = hullPrev[i] = e;
+        hullNext[e] = hullPrev[next] = i;
+        hullNext[i] = next;
+
+        hullHash[hashKey(x, y)] = i;
+        hullHash[hashKey(points[2 * e], points[2 * e + 1])] = e;
+    }
+
+    /**
+     * Flip the edges around a new triangle until they all satisfy the Delaunay condition
+     * @return The halfedge opposite to a once every flip is done
+     */
+    private int legalize(int a) {
+        int stackSize = 0;
+        int ar;
+
+        for (;;) {
+            int b = halfedges[a];
+
+            int a0 = a - a % 3;
+            ar = a0 + (a + 2) % 3;
+
+            // Hull edge, nothing to flip
+            if (b == -1) {
+                if (stackSize == 0) break;
+                a = edgeStack[--stackSize];
+                continue;
+            }
+
+            int b0 = b - b % 3;
+            int al = a0 + (a + 1) % 3;
+            int bl = b0 + (b + 2) % 3;
+
+            int p0 = triangles[ar];
+            int pr = triangles[a];
+            int pl = triangles[al];
+            int p1 = triangles[bl];
+
+            if (inCircle(p0, pr, pl, p1)) {
+                triangles[a] = p1;
+                triangles[b] = p0;
+
+                int hbl = halfedges[bl];
+
+                // The flipped edge was on the hull, fix the hull triangle reference
+                if (hbl == -1) {
+                    int e = hullStart;
+                    do {
+                        if (hullTri[e] == bl) {
+                            hullTri[e] = a;
+                            break;
+                        }
+                        e = hullPrev[e];
+                    } while (e != hullStart);
+                }
+
+                link(a, hbl);
+                link(b, halfedges[ar]);
+                link(ar, bl);
+
+                if (stackSize == edgeStack.length) edgeStack = Arrays.copyOf(edgeStack, stackSize * 2);
+                edgeStack[stackSize++] = b0 + (b + 1) % 3;
+            } else {
+                if (stackSize == 0) break;
+                a = edgeStack[--stackSize];
+            }
+        }
+
+        return ar;
+    }
+
+    private int addTriangle(int i0, int i1, int i2, int a, int b, int c) {
+        int t = trianglesLength;
+
+        triangles[t] = i0;
+        triangles[t + 1] = i1;
+        triangles[t + 2] = i2;
+
+        link(t, a);
+        link(t + 1, b);
+        link(t + 2, c);
+
+        trianglesLength += 3;
+
+        return t;
+    }
+
+    private void link(int a, int b) {
+        halfedges[a] = b;
+        if (b != -1) halfedges[b] = a;
+    }
+
+    /**
+     * Sort the point indices by distance to the seed circumcenter, closest first.
+     * The distance bits are kept in the high bits of a long and the index in the low bits,
+     * so the order is only approximate for distances closer than 2^-(52 - index bits) relative to each other
+     */
+    private int[] sortByDistanceToCenter(int pointCount) {
+        int indexBits = 32 - Integer.numberOfLeadingZeros(pointCount);
+        long indexMask = (1L << indexBits) - 1;
+
+        long[] keys = new long[pointCount];
+
+        for (int i = 0; i < pointCount; i++) {
+            double diffX = points[2 * i] - centerX;
+            double diffY = points[2 * i + 1] - centerY;
+
+            // Squared distances are >= 0, so their bits sort like the doubles
+            keys[i] = (Double.doubleToLongBits(diffX * diffX + diffY * diffY) & ~indexMask) | i;
+        }
+
+        Arrays.parallelSort(keys);
+
+        int[] ids = new int[pointCount];
+
+        for (int k = 0; k < pointCount; k++) {
+            ids[k] = (int) (keys[k] & indexMask);
+        }
+
+        return ids;
+    }
+
+    /**
+     * @param excluded Index skipped by the search along with the points on top of it, -1 for none
+     */
+    private int findClosestPoint(int pointCount, double x, double y, int excluded) {
+        int closest = -1;
+        double minDistance = Double.POSITIVE_INFINITY;
+
+        for (int i = 0; i < pointCount; i++) {
+            if (i == excluded) continue;
+
+            double diffX = points[2 * i] - x;
+            double diffY = points[2 * i + 1] - y;
+            double distance = diffX * diffX + diffY * diffY;
+
+            if (distance < minDistance && (excluded == -1 || distance > 0)) {
+                closest = i;
+                minDistance = distance;
+            }
+        }
+
+        return closest;
+    }
+
+    /**
+     * @return The point forming the smallest circumcircle with seed0 and seed1, -1 if all points are collinear
+     */
+    private int findSmallestCircumcircle(int pointCount, int seed0, int seed1) {
+        int smallest = -1;
+        double minRadius = Double.POSITIVE_INFINITY;
+
+        for (int i = 0; i < pointCount; i++) {
+            if (i == seed0 || i == seed1) continue;
+
+            double radius = circumradius(seed0, seed1, i);
+
+            if (radius < minRadius) {
+                smallest = i;
+                minRadius = radius;
+            }
+        }
+
+        return smallest;
+    }
+
+    private int hashKey(double x, double y) {
+        return (int) Math.floor(pseudoAngle(x - centerX, y - centerY) * hashSize) % hashSize;
+    }
+
+    /**
+     * Monotonic in the angle of (diffX, diffY), in [0, 1]
+     */
+    private static double pseudoAngle(double diffX, double diffY) {
+        double p = diffX / (Math.abs(diffX) + Math.abs(diffY));
+        return (diffY > 0 ? 3 - p : 1 + p) / 4;
+    }
+
+    /**
+     * @return true if r is on the right side of pq
+     */
+    private static boolean orient(double px, double py, double qx, double qy, double rx, double ry) {
+        return (qy - py) * (rx - qx) - (qx - px) * (ry - qy) < 0;
+    }
+
+    /**
+     * @return true if p is inside the circumcircle of abc
+     */
+    private boolean inCircle(int a, int b, int c, int p) {
+        double px = points[2 * p];
+        double py = points[2 * p + 1];
+
+        double dx = points[2 * a] - px;
+        double dy = points[2 * a + 1] - py;
+        double ex = points[2 * b] - px;
+        double ey = points[2 * b + 1] - py;
+        double fx = points[2 * c] - px;
+        double fy = points[2 * c + 1] - py;
+
+        double ap = dx * dx + dy * dy;
+        double bp = ex * ex + ey * ey;
+        double cp = fx * fx + fy * fy;
+
+        return dx * (ey * cp - bp * fy) - dy * (ex * cp - bp * fx) + ap * (ex * fy - ey * fx) < 0;
+    }
+
+    /**
+     * @return The squared circumradius of abc, infinite if they are collinear
+     */
+    private double circumradius(int a, int b, int c) {
+        double dx = points[2 * b] - points[2 * a];
+        double dy = points[2 * b + 1] - points[2 * a + 1];
+        double ex = points[2 * c] - points[2 * a];
+        double ey = points[2 * c + 1] - points[2 * a + 1];
+
+        double bl = dx * dx + dy * dy;
+        double cl = ex * ex + ey * ey;
+        double cross = dx * ey - dy * ex;
+
+        if (Math.abs(cross) <= EPSILON * (bl + cl)) return Double.POSITIVE_INFINITY;
+
+        double d = 0.5 / cross;
+        double x = (ey * bl - dy * cl) * d;
+        double y = (dx * cl - ex * bl) * d;
+
+        return x * x + y * y;
+    }
+
+    private void setCircumcenter(int a, int b, int c) {
+        double dx = points[2 * b] - points[2 * a];
+        double dy = points[2 * b + 1] - points[2 * a + 1];
+        double ex = points[2 * c] - points[2 * a];
+        double ey = points[2 * c + 1] - points[2 * a + 1];
+
+        double bl = dx * dx + dy * dy;
+        double cl = ex * ex + ey * ey;
+        double d = 0.5 / (dx * ey - dy * ex);
+
+        centerX = points[2 * a] + (ey * bl - dy * cl) * d;
+        centerY = points[2 * a + 1] + (dx * cl - ex * bl) * d;
+    }
+}
@@ -0,0 +1,297 @@
+package com.mygdx.dungen.mapgeneration;
+
+import com.badlogic.gdx.Application;
+import com.badlogic.gdx.Gdx;
+
+import java.util.ArrayList;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Leveled logging facade of the map generation.
+ * Messages are built from "{}" templates only when their level is enabled, so a disabled call costs a field read
+ * (guard with {@link #isDebugEnabled()} in hot loops to also skip the boxing of primitive arguments).
+ * The level is independent from the one of Gdx.app. Output goes to Gdx.app when there is one, System.out otherwise,
+ * and can be handed to a background thread so the generation never waits on the console.
+ */
+public final class Tracer {
+
+    public static final int LOG_NONE    = Application.LOG_NONE;
+    public static final int LOG_ERROR   = Application.LOG_ERROR;
+    public static final int LOG_INFO    = Application.LOG_INFO;
+    public static final int LOG_DEBUG   = Application.LOG_DEBUG;
+
+    private static final int QUEUE_CAPACITY = 8192;
+    // How long a full queue is waited on before checking whether it was detached
+    private static final long OFFER_TIMEOUT_MILLIS = 100;
+
+    private static volatile int level = LOG_INFO;
+    // Null while the output is synchronous
+    private static volatile BlockingQueue<Entry> queue;
+    private static Thread writer;
+
+    private Tracer() {}
+
+    public static void setLevel(int level) {
+        Tracer.level = level;
+    }
+
+    public static int getLevel() {
+        return level;
+    }
+
+    public static boolean isErrorEnabled() {
+        return level >= LOG_ERROR;
+    }
+
+    public static boolean isInfoEnabled() {
+        return level >= LOG_INFO;
+    }
+
+    public static boolean isDebugEnabled() {
+        return level >= LOG_DEBUG;
+    }
+
+    /**
+     * Switch between writing messages on the calling thread and queueing them for a daemon writer thread.
+     * Messages are still formatted on the calling thread, so they show the state at the time of the call.
+     */
+    public static synchronized void setAsync(boolean async) {
+        if (async == (queue != null)) return;
+
+        if (async) {
+            final BlockingQueue<Entry> newQueue = new LinkedBlockingQueue<>(QUEUE_CAPACITY);
+            writer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    drain(newQueue);
+                }
+            }, "Tracer");
+            writer.setDaemon(true);
+            queue = newQueue;
+            writer.start();
+        } else {
+            flush();
+            queue = null;
+            writer.interrupt();
+            writer = null;
+        }
+    }
+
+    /**
+     * Block until every queued message has been written, does nothing while the output is synchronous
+     */
+    public static void flush() {
+        BlockingQueue<Entry> currentQueue = queue;
+
+        if (currentQueue == null) return;
+
+        CountDownLatch written = new CountDownLatch(1);
+
+        try {
+            // Not queued means the queue was detached, setAsync(false) already waited for its messages
+            if (enqueue(currentQueue, new Entry(written))) written.await();
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public static void error(String tag, String message) {
+        if (level >= LOG_ERROR) log(LOG_ERROR, tag, message, null, null, null, null, 0);
+    }
+
+    public static void error(String tag, String template, Object arg) {
+        if (level >= LOG_ERROR) log(LOG_ERROR, tag, template, arg, null, null, null, 1);
+    }
+
+    public static void error(String tag, String template, Object arg1, Object arg2) {
+        if (level >= LOG_ERROR) log(LOG_ERROR, tag, template, arg1, arg2, null, null, 2);
+    }
+
+    public static void error(String tag, String template, Object arg1, Object arg2, Object arg3) {
+        if (level >= LOG_ERROR) log(LOG_ERROR, tag, template, arg1, arg2, arg3, null, 3);
+    }
+
+    public static void error(String tag, String template, Object... args) {
+        if (level >= LOG_ERROR) log(LOG_ERROR, tag, template, null, null, null, args, args.length);
+    }
+
+    public static void info(String tag, String message) {
+        if (level >= LOG_INFO) log(LOG_INFO, tag, message, null, null, null, null, 0);
+    }
+
+    public static void info(String tag, String template, Object arg) {
+        if (level >= LOG_INFO) log(LOG_INFO, tag, template, arg, null, null, null, 1);
+    }
+
+    public static void info(String tag, String template, Object arg1, Object arg2) {
+        if (level >= LOG_INFO) log(LOG_INFO, tag, template, arg1, arg2, null, null, 2);
+    }
+
+    public static void info(String tag, String template, Object arg1, Object arg2, Object arg3) {
+        if (level >= LOG_INFO) log(LOG_INFO, tag, template, arg1, arg2, arg3, null, 3);
+    }
+
+    public static void info(String tag, String template, Object... args) {
+        if (level >= LOG_INFO) log(LOG_INFO, tag, template, null, null, null, args, args.length);
+    }
+
+    public static void debug(String tag, String message) {
+        if (level >= LOG_DEBUG) log(LOG_DEBUG, tag, message, null, null, null, null, 0);
+    }
+
+    public static void debug(String tag, String template, Object arg) {
+        if (level >= LOG_DEBUG) log(LOG_DEBUG, tag, template, arg, null, null, null, 1);
+    }
+
+    public static void debug(String tag, String template, Object arg1, Object arg2) {
+        if (level >= LOG_DEBUG) log(LOG_DEBUG, tag, template, arg1, arg2, null, null, 2);
+    }
+
+    public static void debug(String tag, String template, Object arg1, Object arg2, Object arg3) {
+        if (level >= LOG_DEBUG) log(LOG_DEBUG, tag, template, arg1, arg2, arg3, null, 3);
+    }
+
+    public static void debug(String tag, String template, Object... args) {
+        if (level >= LOG_DEBUG) log(LOG_DEBUG, tag, template, null, null, null, args, args.length);
+    }
+
+    /**
+     * Arguments are either given one by one (arg1 to arg3) or as an array, never both
+     */
+    private static void log(int messageLevel, String tag, String template, Object arg1, Object arg2, Object arg3, Object[] args, int argCount) {
+        String message = argCount == 0 ? template : format(template, arg1, arg2, arg3, args, argCount);
+        BlockingQueue<Entry> currentQueue = queue;
+
+        if (currentQueue == null) {
+            write(messageLevel, tag, message);
+            return;
+        }
+
+        try {
+            if (!enqueue(currentQueue, new Entry(messageLevel, tag, message))) write(messageLevel, tag, message);
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            write(messageLevel, tag, message);
+        }
+    }
+
+    /**
+     * Queue an entry read before a setAsync(false) could detach the queue.
+     * Once detached, the writer may have taken its last batch, so an entry still in the queue is taken back
+     * @return false if the entry is not queued anymore and the caller has to handle it
+     */
+    private static boolean enqueue(BlockingQueue<Entry> currentQueue, Entry entry) throws InterruptedException {
+        while (!currentQueue.offer(entry, OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+            if (queue != currentQueue) return false;
+        }
+
+        return queue == currentQueue || !currentQueue.remove(entry);
+    }
+
+    /**
+     * Replace each "{}" by the next argument, extra placeholders are kept as is
+     */
+    private static String format(String template, Object arg1, Object arg2, Object arg3, Object[] args, int argCount) {
+        StringBuilder builder = new StringBuilder(template.length() + 16 * argCount);
+        int argIndex = 0;
+        int start = 0;
+        int placeholder;
+
+        while (argIndex < argCount && (placeholder = template.indexOf("{}", start)) >= 0) {
+            builder.append(template, start, placeholder);
+
+            if (args != null) {
+                builder.append(args[argIndex]);
+            } else {
+                builder.append(argIndex == 0 ? arg1 : argIndex == 1 ? arg2 : arg3);
+            }
+
+            argIndex++;
+            start = placeholder + 2;
+        }
+
+        builder.append(template, start, template.length());
+
+        return builder.toString();
+    }
+
+    private static void write(int messageLevel, String tag, String message) {
+        Application application = Gdx.app;
+
+        if (application == null) {
+            (messageLevel == LOG_ERROR ? System.err : System.out).println("[" + tag + "] " + message);
+            return;
+        }
+
+        switch (messageLevel) {
+            case LOG_ERROR:
+                application.error(tag, message);
+                break;
+            case LOG_DEBUG:
+                application.debug(tag, message);
+                break;
+            default:
+                application.log(tag, message);
+                break;
+        }
+    }
+
+    /**
+     * Writer thread loop, everything available is taken at once so a burst of messages costs one wake up
+     */
+    private static void drain(BlockingQueue<Entry> queue) {
+        ArrayList<Entry> batch = new ArrayList<>();
+
+        while (true) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException exception) {
+                // setAsync(false) flushed before interrupting, a message queued after this last batch is taken back by enqueue
+                queue.drainTo(batch);
+                writeBatch(batch);
+                return;
+            }
+
+            queue.drainTo(batch);
+            writeBatch(batch);
+            batch.clear();
+        }
+    }
+
+    private static void writeBatch(ArrayList<Entry> batch) {
+        for (int i = 0; i < batch.size(); i++) {
+            Entry entry = batch.get(i);
+
+            if (entry.flushed != null) {
+                entry.flushed.countDown();
+            } else {
+                write(entry.level, entry.tag, entry.message);
+            }
+        }
+    }
+
+    private static class Entry {
+        private final int level;
+        private final String tag;
+        private final String message;
+        // Set on flush markers only
+        private final CountDownLatch flushed;
+
+        private Entry(int level, String tag, String message) {
+            this.level = level;
+            this.tag = tag;
+            this.message = message;
+            this.flushed = null;
+        }
+
+        private Entry(CountDownLatch flushed) {
+            this.level = LOG_NONE;
+            this.tag = null;
+            this.message = null;
+            this.flushed = flushed;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.mygdx.dungen.mapgeneration;
+
+import com.badlogic.gdx.math.Rectangle;
+import com.badlogic.gdx.utils.Array;
+import com.mygdx.dungen.GameCell;
+import com.mygdx.dungen.GameRoom;
+import org.junit.Test;
+
+import java.util.SplittableRandom;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class CorridorGeneratorTest {
+
+    private static final int RANDOM_SET_COUNT = 300;
+
+    private final CorridorGenerator corridorGenerator = new CorridorGenerator(CorridorMode.RANDOM);
+
+    @Test
+    public void removeUselessCellsMatchesTheNestedLoopOnRandomSets() {
+        SplittableRandom random = new SplittableRandom(18);
+
+        for (int set = 0; set < RANDOM_SET_COUNT; set++) {
+            int size = 1 + random.nextInt(set < RANDOM_SET_COUNT - 10 ? 100 : 2000);
+            Array<GameCell> cells = createCells(random, size);
+            Array<Rectangle> corridors = createCorridors(random, random.nextInt(1 + size / 10), size);
+
+            assertSameCells("set " + set, removeUselessCellsNestedLoop(cells, corridors), corridorGenerator.removeUselessCells(cells, corridors));
+        }
+    }
+
+    @Test
+    public void removeUselessCellsKeepsNothingWithoutCorridors() {
+        Array<GameCell> cells = new Array<>();
+        cells.add(new GameRoom(0, 0, 10, 10));
+        cells.add(new GameCell(20, 0, 4, 4));
+
+        assertEquals(0, corridorGenerator.removeUselessCells(cells, new Array<Rectangle>()).size);
+    }
+
+    @Test
+    public void removeUselessCellsKeepsTheFirstOfEqualCells() {
+        GameCell cell = new GameCell(0, 0, 4, 4);
+        GameCell equalCell = new GameCell(0, 0, 4, 4);
+        GameRoom room = new GameRoom(10, 10, 8, 8);
+
+        Array<GameCell> cells = new Array<>();
+        cells.add(cell);
+        cells.add(room);
+        cells.add(equalCell);
+        cells.add(cell);
+        cells.add(room);
+
+        Array<Rectangle> corridors = new Array<>();
+        corridors.add(new Rectangle(-2, 1, 3, 3));
+        corridors.add(new Rectangle(2, 1, 3, 3));
+
+        assertSameCells("equal cells", removeUselessCellsNestedLoop(cells, corridors), corridorGenerator.removeUselessCells(cells, corridors));
+    }
+
+    /**
+     * removeUselessCells as it was before the spatial join, the reference the indexed version must match exactly
+     */
+    private static Array<GameCell> removeUselessCellsNestedLoop(Array<GameCell> cells, Array<Rectangle> corridors) {
+        Array<GameCell> remainingCells = new Array<>(cells.size);
+
+        for (int i = 0; i < corridors.size; i++) {
+            Rectangle corridorPart = corridors.get(i);
+
+            for (int j = 0; j < cells.size; j++) {
+                GameCell cell = cells.get(j);
+
+                if (cell instanceof GameRoom || corridorPart.overlaps(cell)) {
+                    if (!remainingCells.contains(cell, false)) remainingCells.add(cell);
+                }
+            }
+        }
+
+        remainingCells.shrink();
+        return remainingCells;
+    }
+
+    /**
+     * Cells and rooms on a small area so they overlap, some of them duplicated by reference or by value
+     */
+    private static Array<GameCell> createCells(SplittableRandom random, int size) {
+        Array<GameCell> cells = new Array<>(size);
+        int extent = 4 * (int) Math.ceil(Math.sqrt(size)) + 8;
+
+        for (int i = 0; i < size; i++) {
+            int duplicate = cells.size > 0 ? random.nextInt(10) : -1;
+
+            if (duplicate == 0) {
+                cells.add(cells.get(random.nextInt(cells.size)));
+            } else if (duplicate == 1) {
+                GameCell original = cells.get(random.nextInt(cells.size));
+                cells.add(original instanceof GameRoom
+                        ? new GameRoom(original.x, original.y, original.width, original.height)
+                        : new GameCell(original.x, original.y, original.width, original.height));
+            } else if (random.nextInt(20) == 0) {
+                cells.add(new GameRoom(random.nextInt(-extent, extent), random.nextInt(-extent, extent), 6 + random.nextInt(10), 6 + random.nextInt(10)));
+            } else {
+                cells.add(new GameCell(random.nextInt(-extent, extent), random.nextInt(-extent, extent), 3 + random.nextInt(3), 3 + random.nextInt(3)));
+            }
+        }
+
+        return cells;
+    }
+
+    /**
+     * Straight parts three wide, touching, crossing or away from the cells
+     */
+    private static Array<Rectangle> createCorridors(SplittableRandom random, int count, int cellCount) {
+        Array<Rectangle> corridors = new Array<>(count);
+        int extent = 4 * (int) Math.ceil(Math.sqrt(cellCount)) + 8;
+
+        for (int i = 0; i < count; i++) {
+            int length = 1 + random.nextInt(extent);
+            int x = random.nextInt(-extent, extent);
+            int y = random.nextInt(-extent, extent);
+
+            corridors.add(random.nextBoolean() ? new Rectangle(x, y, length, 3) : new Rectangle(x, y, 3, length));
+        }
+
+        return corridors;
+    }
+
+    private static void assertSameCells(String message, Array<GameCell> expected, Array<GameCell> actual) {
+        assertEquals(message + ": size", expected.size, actual.size);
+
+        for (int i = 0; i < expected.size; i++) {
+            assertSame(message + ": cell " + i, expected.get(i), actual.get(i));
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.mygdx.dungen.server;
+
+import com.badlogic.gdx.math.Rectangle;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.JsonWriter;
+import com.mygdx.dungen.Entrance;
+import com.mygdx.dungen.GameCell;
+import com.mygdx.dungen.GameMap;
+import com.mygdx.dungen.GameRoom;
+import com.mygdx.dungen.mapgeneration.RoomGraph;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+/**
+ * Write a GameMap as JSON with java.io, Gdx.files needs a running application.
+ * Rooms are listed in the order of the graph, edges refer to them by index.
+ */
+public final class MapJsonExporter {
+
+    private MapJsonExporter() {}
+
+    public static void export(GameMap map, File file) throws IOException {
+        try (JsonWriter json = new JsonWriter(new BufferedWriter(new FileWriter(file)))) {
+            json.setOutputType(JsonWriter.OutputType.json);
+
+            json.object();
+            // As a string, a long does not fit in the doubles of most JSON readers
+            json.set("seed", Long.toString(map.seed));
+            writeRectangle(json.object("boundingBox"), map.boundingBox);
+            json.pop();
+
+            RoomGraph graph = map.minimalSpanningTree;
+            Array<GameRoom> rooms = graph.getRooms();
+
+            json.array("rooms");
+            for (int i = 0; i < rooms.size; i++) {
+                writeRoom(json, rooms.get(i));
+            }
+            json.pop();
+
+            json.array("cells");
+            for (int i = 0; i < map.onlyCells.size; i++) {
+                GameCell cell = map.onlyCells.get(i);
+                writeRectangle(json.object(), cell);
+                json.pop();
+            }
+            json.pop();
+
+            json.array("corridors");
+            for (int i = 0; i < map.corridors.size; i++) {
+                writeRectangle(json.object(), map.corridors.get(i));
+                json.pop();
+            }
+            json.pop();
+
+            json.array("edges");
+            for (int edge = 0; edge < graph.getEdgeCount(); edge++) {
+                json.array().value(graph.getEdgeSource(edge)).value(graph.getEdgeTarget(edge)).pop();
+            }
+            json.pop();
+
+            json.pop();
+        }
+    }
+
+    private static void writeRoom(JsonWriter json, GameRoom room) throws IOException {
+        writeRectangle(json.object(), room);
+
+        Array<Entrance> entrances = room.getEntrances();
+        json.array("entrances");
+        for (int i = 0; i < entrances.size; i++) {
+            Entrance entrance = entrances.get(i);
+            json.array()
+                    .value(entrance.getStart().x).value(entrance.getStart().y)
+                    .value(entrance.getEnd().x).value(entrance.getEnd().y)
+                    .pop();
+        }
+        json.pop();
+
+        json.pop();
+    }
+
+    private static void writeRectangle(JsonWriter json, Rectangle rectangle) throws IOException {
+        json.set("x", rectangle.x)
+                .set("y", rectangle.y)
+                .set("width", rectangle.width)
+                .set("height", rectangle.height);
+    }
+}
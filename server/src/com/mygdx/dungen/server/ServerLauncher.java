@@ -0,0 +1,42 @@
+package com.mygdx.dungen.server;
+
+import com.mygdx.dungen.GameMap;
+import com.mygdx.dungen.mapgeneration.GenerationMode;
+import com.mygdx.dungen.mapgeneration.MapGenerator;
+import com.mygdx.dungen.mapgeneration.Tracer;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Generate maps to JSON files without a libGDX application, no window nor OpenGL context is created.
+ * Usage: ServerLauncher [mapCount] [seed] [outputDirectory]
+ * With a seed the maps are generated sequentially so the same seed always gives the same files,
+ * without one they are generated as in the game.
+ */
+public class ServerLauncher {
+	public static void main (String[] arg) throws IOException {
+		int mapCount = arg.length > 0 ? Integer.parseInt(arg[0]) : 1;
+		boolean seeded = arg.length > 1 && !arg[1].equals("-");
+		File outputDirectory = new File(arg.length > 2 ? arg[2] : "maps");
+
+		if (!outputDirectory.isDirectory() && !outputDirectory.mkdirs()) {
+			throw new IOException("Could not create " + outputDirectory);
+		}
+
+		Tracer.setLevel(Tracer.LOG_ERROR);
+
+		MapGenerator mapGenerator = seeded ? new MapGenerator(Long.parseLong(arg[1])) : new MapGenerator();
+
+		for (int i = 0; i < mapCount; i++) {
+			long start = System.nanoTime();
+			GameMap map = seeded ? mapGenerator.generate(GenerationMode.SEQUENTIAL) : mapGenerator.generate();
+			long millis = (System.nanoTime() - start) / 1000000;
+
+			File file = new File(outputDirectory, "map-" + map.seed + ".json");
+			MapJsonExporter.export(map, file);
+
+			System.out.println(file.getPath() + " (" + map.onlyRooms.size + " rooms, " + map.corridors.size + " corridors, " + millis + " ms)");
+		}
+	}
+}